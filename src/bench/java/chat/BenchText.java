@@ -0,0 +1,18 @@
+package chat;
+
+// текст сообщения для замеров: половина латиницы, половина кириллицы, как в живом чате
+public final class BenchText {
+    private static final String SAMPLE = "Hello, как дела? Смотри код: for (int i = 0; i < n; i++) sum += i; ";
+
+    private BenchText() {
+    }
+
+    // строка ровно из length символов
+    public static String of(int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append(SAMPLE, 0, Math.min(SAMPLE.length(), length - text.length()));
+        }
+        return text.toString();
+    }
+}
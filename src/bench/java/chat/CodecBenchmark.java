@@ -0,0 +1,106 @@
+package chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// кодирование и разбор одного сообщения в обоих форматах при разной длине текста
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"16", "256", "4096", "32768"}) // символов; 32768 в UTF-8 еще влезает в один кадр
+    int payloadSize;
+
+    private Message message;
+    private byte[] encoded;          // Message.toBytes()
+    private ByteBuffer v1Payload;    // то же, но в прямом буфере, как после чтения из сокета
+    private ByteBuffer compactPayload;
+    private ByteBuffer out;          // переиспользуемый буфер для кадров
+    private final MessageView view = new MessageView();
+
+    // формат v2 с литералами в таблицу не заглядывает
+    private final NameTable names = new NameTable() {
+        @Override public String user(int id) { return null; }
+        @Override public String room(int id) { return null; }
+        @Override public void defineUser(int id, String name) { }
+        @Override public void defineRoom(int id, String name) { }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        message = new Message("пользователь", BenchText.of(payloadSize), "комната");
+        encoded = message.toBytes();
+
+        v1Payload = ByteBuffer.allocateDirect(encoded.length);
+        v1Payload.put(encoded).flip();
+
+        ByteBuffer compactFrame = ByteBuffer.allocateDirect(CompactCodec.frameLength(message));
+        CompactCodec.writeFrame(message, compactFrame);
+        compactFrame.flip();
+        CompactCodec.readVarint(compactFrame); // длина кадра мне не нужна
+        compactPayload = compactFrame.slice();
+
+        out = ByteBuffer.allocateDirect(MessageCodec.frameLength(message) + 16);
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return message.toBytes();
+    }
+
+    @Benchmark
+    public Message fromBytes() throws IOException {
+        return new Message(encoded);
+    }
+
+    @Benchmark
+    public ByteBuffer writeFrameV1() {
+        out.clear();
+        MessageCodec.writeFrame(message, out);
+        return out;
+    }
+
+    @Benchmark
+    public ByteBuffer writeFrameCompact() {
+        out.clear();
+        CompactCodec.writeFrame(message, out);
+        return out;
+    }
+
+    // сервер при рассылке строку текста не собирает, только смотрит заголовки
+    @Benchmark
+    public void viewV1(Blackhole blackhole) throws IOException {
+        view.wrap(v1Payload.duplicate());
+        blackhole.consume(view.getUsername());
+        blackhole.consume(view.contentBytes());
+    }
+
+    @Benchmark
+    public void viewCompact(Blackhole blackhole) throws IOException {
+        view.wrapCompact(compactPayload.duplicate(), names);
+        blackhole.consume(view.getUsername());
+        blackhole.consume(view.contentBytes());
+    }
+
+    // клиент показывает сообщение целиком
+    @Benchmark
+    public Message viewToMessage() throws IOException {
+        return view.wrap(v1Payload.duplicate()).toMessage();
+    }
+}
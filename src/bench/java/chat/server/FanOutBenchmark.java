@@ -0,0 +1,120 @@
+package chat.server;
+
+import chat.BenchText;
+import chat.Message;
+import chat.MessageView;
+import chat.PooledBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// одно сообщение чата от разбора кадра до раздачи всем участникам комнаты.
+// соединения в памяти: кадр только засчитываю, сокетов нет - меряю сам сервер, а не сеть
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    int members;
+
+    @Param({"256"})
+    int payloadSize;
+
+    @Param({"false", "true"})
+    boolean compact; // в каком формате читают участники
+
+    private ChatService service;
+    private InMemorySession sender;
+    private final List<InMemorySession> sessions = new ArrayList<>();
+    private final MessageView view = new MessageView();
+    private ByteBuffer text; // сообщение отправителя без длины, как его отдает FrameDecoder
+
+    @Setup
+    public void setUp() {
+        ServerConfig config = new ServerConfig()
+                .setHistoryReplayCount(0)  // без колец последних сообщений
+                .setLogChatMessages(false);
+        service = new ChatService(config);
+        service.setServerListener(line -> { }); // журнал входов никуда не вывожу
+        service.open();
+
+        sender = join("отправитель", Message.Type.CREATE_ROOM);
+        for (int i = 0; i < members; i++) {
+            sessions.add(join("участник" + i, Message.Type.JOIN_ROOM));
+        }
+        for (InMemorySession session : sessions) {
+            if (compact) session.protocol().switchToCompact();
+        }
+
+        text = payload(new Message("отправитель", BenchText.of(payloadSize), "комната"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (InMemorySession session : sessions) {
+            service.disconnect(session);
+        }
+        service.disconnect(sender);
+        service.close();
+    }
+
+    @Benchmark
+    public long broadcast() {
+        service.processMessage(sender, view, text.duplicate());
+        return sessions.get(0).bytes;
+    }
+
+    // регистрирую клиента и завожу в общую комнату
+    private InMemorySession join(String username, Message.Type type) {
+        InMemorySession session = new InMemorySession();
+        service.processMessage(session, view, payload(new Message(username, "", "")));
+        service.processMessage(session, view, payload(new Message(type, username, "комната")));
+        return session;
+    }
+
+    private static ByteBuffer payload(Message message) {
+        byte[] bytes = message.toBytes();
+        return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    }
+
+    // соединение без сокета: кадр сразу считается отправленным
+    private static final class InMemorySession extends Session {
+        long frames;
+        long bytes;
+
+        @Override
+        void send(PooledBuffer frame, boolean droppable) {
+            frames++;
+            bytes += frame.buffer().remaining();
+        }
+
+        @Override
+        long pendingBytes() {
+            return 0;
+        }
+
+        @Override
+        void dropOldest(long target) {
+        }
+
+        @Override
+        void evict() {
+        }
+    }
+}
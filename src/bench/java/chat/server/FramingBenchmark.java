@@ -0,0 +1,102 @@
+package chat.server;
+
+import chat.BenchText;
+import chat.CompactCodec;
+import chat.Message;
+import chat.MessageCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+// нарезка входящего потока на кадры (FrameDecoder) при разной длине кадров и разных порциях чтения:
+// маленькая порция - много недочитанных кадров, большая - много кадров за одно чтение
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(FramingBenchmark.FRAMES)
+public class FramingBenchmark {
+    static final int FRAMES = 256; // кадров в потоке, результат - время на один кадр
+
+    @Param({"64", "1024", "16384"})
+    int payloadSize;
+
+    @Param({"536", "1460", "65536"}) // байт за одно чтение из сокета
+    int readSize;
+
+    @Param({"false", "true"})
+    boolean compact;
+
+    private ByteBuffer stream; // FRAMES кадров подряд, как их присылает клиент
+    private final ChunkedChannel channel = new ChunkedChannel();
+    private final ProtocolState protocol = new ProtocolState();
+    private FrameDecoder decoder;
+
+    @Setup
+    public void setUp() {
+        Message message = new Message("пользователь", BenchText.of(payloadSize), "комната");
+        int frameLength = compact ? CompactCodec.frameLength(message) : MessageCodec.frameLength(message);
+        stream = ByteBuffer.allocateDirect(frameLength * FRAMES);
+        for (int i = 0; i < FRAMES; i++) {
+            if (compact) {
+                CompactCodec.writeFrame(message, stream);
+            } else {
+                MessageCodec.writeFrame(message, stream);
+            }
+        }
+        stream.flip();
+
+        if (compact) protocol.switchToCompact();
+        decoder = new FrameDecoder(protocol);
+        channel.chunk = readSize;
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) throws IOException {
+        channel.source = stream.duplicate();
+        while (decoder.readFrom(channel) > 0) {
+            decoder.drain(blackhole::consume);
+        }
+    }
+
+    // отдает поток порциями не больше chunk байт, как неблокирующий сокет
+    private static final class ChunkedChannel implements ReadableByteChannel {
+        ByteBuffer source;
+        int chunk;
+
+        @Override
+        public int read(ByteBuffer target) {
+            if (!source.hasRemaining()) return 0;
+            int length = Math.min(Math.min(chunk, source.remaining()), target.remaining());
+            ByteBuffer portion = source.slice(source.position(), length);
+            target.put(portion);
+            source.position(source.position() + length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
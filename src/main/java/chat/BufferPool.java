@@ -0,0 +1,96 @@
+package chat;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// пул прямых (direct) буферов по классам размеров: 256 байт, 512, ... 128 КБ.
+// прямой буфер сокет пишет без лишней копии, а переиспользование убирает мусор для GC
+public final class BufferPool {
+    private static final int MIN_SHIFT = 8;  // 256 байт
+    private static final int MAX_SHIFT = 17; // 128 КБ - влезает самый большой кадр
+    private static final BufferPool SHARED = new BufferPool(4 * 1024 * 1024, 128);
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Queue<ByteBuffer>[] free; // свободные буферы по классам
+    private final AtomicInteger[] freeCount;
+    private final int maxBytesPerClass; // сколько байт максимум держу в каждом классе
+    private final int leakSampleInterval; // каждый какой буфер проверяю на утечку (0 - не проверяю)
+    private final AtomicInteger acquireCounter = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();       // выдала из пула
+    private final LongAdder misses = new LongAdder();     // пришлось выделить новый
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder leaks = new LongAdder();      // буфер собрал GC, а release так и не позвали
+
+    // общий пул для сервера и клиента
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(int maxBytesPerClass, int leakSampleInterval) {
+        this.maxBytesPerClass = maxBytesPerClass;
+        this.leakSampleInterval = leakSampleInterval;
+        int classes = MAX_SHIFT - MIN_SHIFT + 1;
+        free = new Queue[classes];
+        freeCount = new AtomicInteger[classes];
+        for (int i = 0; i < classes; i++) {
+            free[i] = new ConcurrentLinkedQueue<>();
+            freeCount[i] = new AtomicInteger();
+        }
+    }
+
+    // буфер емкостью не меньше size: position = 0, limit = size
+    public PooledBuffer acquire(int size) {
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            buffer = free[sizeClass].poll();
+            if (buffer != null) {
+                freeCount[sizeClass].decrementAndGet();
+                hits.increment();
+            }
+        }
+        if (buffer == null) {
+            misses.increment();
+            // больше самого крупного класса не пулю - такие кадры все равно не пройдут проверку длины
+            buffer = ByteBuffer.allocateDirect(sizeClass >= 0 ? 1 << (sizeClass + MIN_SHIFT) : size);
+        }
+        buffer.clear().limit(size);
+        acquired.increment();
+
+        PooledBuffer pooled = new PooledBuffer(this, buffer);
+        if (leakSampleInterval > 0 && acquireCounter.incrementAndGet() % leakSampleInterval == 0) {
+            pooled.trackLeaks(CLEANER, leaks); // слежу только за частью буферов, чтобы не платить за каждый
+        }
+        return pooled;
+    }
+
+    // вызывается из PooledBuffer, когда отпустили последнюю ссылку
+    void recycle(ByteBuffer buffer) {
+        released.increment();
+        int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass < 0 || buffer.capacity() != 1 << (sizeClass + MIN_SHIFT)) return; // не мой размер
+        if (freeCount[sizeClass].incrementAndGet() * buffer.capacity() > maxBytesPerClass) {
+            freeCount[sizeClass].decrementAndGet(); // класс полон - пусть забирает GC
+            return;
+        }
+        free[sizeClass].offer(buffer);
+    }
+
+    // номер класса для размера или -1, если размер больше самого крупного класса
+    private static int sizeClass(int size) {
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1));
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    public long getOutstanding() { return acquired.sum() - released.sum(); } // выдано и еще не возвращено
+    public long getLeaks() { return leaks.sum(); }
+}
@@ -0,0 +1,176 @@
+package chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// компактный формат v2:
+//   кадр      = длина (varint) + сообщение
+//   сообщение = тип (1 байт) + имя (поле) + текст (varint-длина + UTF-8) + комната (поле)
+//               [+ номер в комнате (long) + время приема на сервере (long, мс) - у сообщений чата от сервера]
+//   поле      = тег (varint), младшие биты тега:
+//               ..1 - ссылка на id, выданный сервером раньше (id = тег >>> 1)
+//               .00 - строка без id (длина = тег >>> 2, затем UTF-8)
+//               .10 - строка с новым id (длина = тег >>> 2, затем id (varint), затем UTF-8)
+// сервер выдает id пользователям и комнатам, поэтому каждое имя идет по сети один раз за сессию.
+// v2 включается знакомством HELLO/WELCOME (Handshake), до него оба говорят в старом формате
+public final class CompactCodec {
+    private static final Message.Type[] TYPES = Message.Type.values();
+
+    private CompactCodec() {
+    }
+
+    // поле-строка в одном из трех видов; длину в UTF-8 считаю один раз
+    public static final class Field {
+        private final int id;
+        private final String text;
+        private final int textLength;
+
+        private Field(int id, String text) {
+            this.id = id;
+            this.text = text;
+            this.textLength = text != null ? MessageCodec.utf8Length(text) : 0;
+        }
+
+        // ссылка на уже известный получателю id
+        public static Field ref(int id) {
+            return new Field(id, null);
+        }
+
+        // просто строка
+        public static Field literal(String text) {
+            return new Field(0, text);
+        }
+
+        // строка, которую получатель должен запомнить под этим id
+        public static Field define(int id, String text) {
+            return new Field(id, text);
+        }
+
+        int size() {
+            if (text == null) return varintSize((id << 1) | 1);
+            int size = varintSize(textLength << 2) + textLength;
+            return id > 0 ? size + varintSize(id) : size;
+        }
+
+        void write(ByteBuffer out) {
+            if (text == null) {
+                putVarint(out, (id << 1) | 1);
+            } else if (id > 0) {
+                putVarint(out, (textLength << 2) | 2);
+                putVarint(out, id);
+                MessageCodec.putUtf8(out, text);
+            } else {
+                putVarint(out, textLength << 2);
+                MessageCodec.putUtf8(out, text);
+            }
+        }
+    }
+
+    // размер кадра целиком, вместе с длиной в начале
+    public static int frameLength(Field username, ByteBuffer content, Field room) {
+        return frameLength(username, content, room, 0);
+    }
+
+    public static int frameLength(Field username, ByteBuffer content, Field room, long sequence) {
+        int length = messageLength(username, content.remaining(), room, sequence);
+        return varintSize(length) + length;
+    }
+
+    public static void writeFrame(Message.Type type, Field username, ByteBuffer content, Field room, ByteBuffer out) {
+        writeFrame(type, username, content, room, 0, 0, out);
+    }
+
+    // sequence - номер сообщения в комнате, 0 - без метки; timestamp - время приема на сервере
+    public static void writeFrame(Message.Type type, Field username, ByteBuffer content, Field room,
+                                  long sequence, long timestamp, ByteBuffer out) {
+        putVarint(out, messageLength(username, content.remaining(), room, sequence));
+        writeMessage(type, username, content, room, out);
+        if (sequence != 0) {
+            out.putLong(sequence);
+            out.putLong(timestamp);
+        }
+    }
+
+    // обычное сообщение: все строки как есть, без id
+    public static int frameLength(Message message) {
+        int length = messageLength(message);
+        return varintSize(length) + length;
+    }
+
+    public static void writeFrame(Message message, ByteBuffer out) {
+        putVarint(out, messageLength(message));
+        writeMessage(message, out);
+    }
+
+    private static int messageLength(Field username, int contentLength, Field room, long sequence) {
+        return 1 + username.size() + varintSize(contentLength) + contentLength + room.size()
+                + (sequence != 0 ? MessageCodec.STAMP_LENGTH : 0);
+    }
+
+    private static int messageLength(Message message) {
+        int contentLength = MessageCodec.utf8Length(message.getContent());
+        return 1 + Field.literal(message.getUsername()).size()
+                + varintSize(contentLength) + contentLength
+                + Field.literal(message.getRoom()).size()
+                + (message.getSequence() != 0 ? MessageCodec.STAMP_LENGTH : 0);
+    }
+
+    private static void writeMessage(Message.Type type, Field username, ByteBuffer content, Field room, ByteBuffer out) {
+        out.put((byte) type.ordinal());
+        username.write(out);
+        putVarint(out, content.remaining());
+        out.put(content.duplicate()); // позицию чужого буфера не трогаю
+        room.write(out);
+    }
+
+    private static void writeMessage(Message message, ByteBuffer out) {
+        out.put((byte) message.getType().ordinal());
+        Field.literal(message.getUsername()).write(out);
+        putVarint(out, MessageCodec.utf8Length(message.getContent()));
+        MessageCodec.putUtf8(out, message.getContent());
+        Field.literal(message.getRoom()).write(out);
+        if (message.getSequence() != 0) {
+            out.putLong(message.getSequence());
+            out.putLong(message.getTimestamp());
+        }
+    }
+
+    static Message.Type type(int ordinal) throws IOException {
+        if (ordinal < 0 || ordinal >= TYPES.length) {
+            throw new IOException("Неизвестный тип сообщения: " + ordinal);
+        }
+        return TYPES[ordinal];
+    }
+
+    // сколько байт займет число в varint (7 бит на байт)
+    public static int varintSize(int value) {
+        return value < 0 ? 5 : (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+    }
+
+    public static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    // читаю varint с текущей позиции; если байтов не хватило - возвращаю -1 и позицию не двигаю
+    public static int readVarint(ByteBuffer in) throws IOException {
+        int start = in.position();
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!in.hasRemaining()) {
+                in.position(start);
+                return -1;
+            }
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) throw new IOException("Некорректное число varint");
+                return value;
+            }
+        }
+        throw new IOException("Слишком длинное число varint");
+    }
+}
@@ -0,0 +1,96 @@
+package chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// сжатые сообщения v2, в обе стороны - если в HELLO/WELCOME согласовали CAP_DEFLATE:
+//   сообщение = DEFLATED (1 байт) + длина исходного сообщения v2 (varint) + deflate без заголовка zlib
+// сжимаю текст от порога сервера (ServerConfig.compressionThreshold, клиент узнает его из WELCOME).
+// каждое сообщение сжато само по себе, без словаря от прошлых кадров: один сжатый кадр рассылки годится всем
+// в комнате, поэтому сервер сжимает раз на рассылку, а не раз на получателя
+public final class FrameCompression {
+    public static final int DEFLATED = 0x80; // в обычном сообщении v2 первый байт - тип, он меньше
+    private static final int MAX_POOLED = 16; // Deflater держит нативную память, лишние закрываю
+
+    // сжатие зовут потоки рассылки сервера (их может быть много) и клиенты, поэтому Deflater беру из общего запаса
+    private static final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    private FrameCompression() {
+    }
+
+    // сообщение v2 пришло сжатым
+    public static boolean isDeflated(ByteBuffer message) {
+        return message.hasRemaining() && (message.get(message.position()) & DEFLATED) != 0;
+    }
+
+    // frame - кадр v2 целиком (длина + сообщение), позицию не трогаю.
+    // возвращаю сжатый кадр, уже перевернутый; null - сжатие не выиграло ни байта
+    public static PooledBuffer deflate(BufferPool pool, ByteBuffer frame) {
+        ByteBuffer input = frame.duplicate();
+        try {
+            CompactCodec.readVarint(input); // длину кадра не сжимаю
+        } catch (IOException e) {
+            return null;
+        }
+        int originalLength = input.remaining();
+
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        PooledBuffer scratch = pool.acquire(originalLength); // если сжатое не влезет в исходный размер - смысла нет
+        try {
+            ByteBuffer packed = scratch.buffer().limit(originalLength);
+            deflater.setInput(input);
+            deflater.finish();
+            while (!deflater.finished() && packed.hasRemaining()) {
+                deflater.deflate(packed);
+            }
+            if (!deflater.finished()) return null;
+            packed.flip();
+
+            int messageLength = 1 + CompactCodec.varintSize(originalLength) + packed.remaining();
+            if (messageLength >= originalLength) return null;
+            PooledBuffer compressed = pool.acquire(CompactCodec.varintSize(messageLength) + messageLength);
+            ByteBuffer out = compressed.buffer();
+            CompactCodec.putVarint(out, messageLength);
+            out.put((byte) DEFLATED);
+            CompactCodec.putVarint(out, originalLength);
+            out.put(packed);
+            out.flip();
+            return compressed;
+        } finally {
+            scratch.release();
+            deflater.reset();
+            if (!deflaters.offer(deflater)) deflater.end();
+        }
+    }
+
+    // message - сжатое сообщение без длины кадра; распаковываю в начало out и возвращаю исходное сообщение.
+    // inflater у каждого соединения свой, между кадрами только reset
+    public static ByteBuffer inflate(Inflater inflater, ByteBuffer message, ByteBuffer out) throws IOException {
+        ByteBuffer in = message.duplicate();
+        in.get(); // DEFLATED
+        int originalLength = CompactCodec.readVarint(in);
+        if (originalLength <= 0 || originalLength > out.capacity()) {
+            throw new IOException("Некорректная длина сжатого сообщения: " + originalLength);
+        }
+
+        ByteBuffer target = out.clear().limit(originalLength);
+        inflater.reset();
+        inflater.setInput(in);
+        try {
+            while (target.hasRemaining()) {
+                if (inflater.inflate(target) == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Обрезанное сжатое сообщение");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Испорченное сжатое сообщение: " + e.getMessage());
+        }
+        return target.flip();
+    }
+}
@@ -0,0 +1,68 @@
+package chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// явное знакомство клиента с сервером: HELLO от клиента, WELCOME в ответ.
+// оба - кадры старого формата (v1), чтобы их понял любой сервер и любой клиент до согласования.
+// поля как у обычного сообщения (в HELLO: имя и секрет для возобновления в тексте), а после комнаты - параметры:
+//   версия протокола (int) + возможности (int, биты CAP_*) + максимальная длина сообщения (int)
+//   + порог сжатия (int: в WELCOME - от скольких байт текста сжимать, если включен CAP_DEFLATE; в HELLO - 0)
+// клиент называет, что умеет; сервер отвечает тем, что из этого включил. WELCOME получают только те,
+// кто прислал HELLO, поэтому старые клиенты новых типов сообщений не видят
+public final class Handshake {
+    public static final int PROTOCOL_VERSION = 2; // 1 - регистрация первым сообщением, без знакомства; 2 - HELLO/WELCOME
+
+    public static final int CAP_COMPACT = 1; // формат v2 (CompactCodec) в обе стороны
+    public static final int CAP_DEFLATE = 2; // длинные сообщения сжаты (FrameCompression) в обе стороны
+
+    private static final int LENGTH = 16; // четыре int после комнаты
+
+    private final int version;
+    private final int capabilities;
+    private final int maxFrameLength;
+    private final int compressionThreshold;
+
+    public Handshake(int version, int capabilities, int maxFrameLength, int compressionThreshold) {
+        this.version = version;
+        this.capabilities = capabilities;
+        this.maxFrameLength = maxFrameLength;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public int getVersion() { return version; }
+    public int getCapabilities() { return capabilities; }
+    public int getMaxFrameLength() { return maxFrameLength; }
+    public int getCompressionThreshold() { return compressionThreshold; }
+
+    public boolean has(int capability) {
+        return (capabilities & capability) != 0;
+    }
+
+    // параметры из хвоста уже разобранного HELLO или WELCOME
+    public static Handshake read(MessageView view) throws IOException {
+        ByteBuffer trailer = view.trailer();
+        if (trailer.remaining() < LENGTH) {
+            throw new IOException("Обрезанное знакомство");
+        }
+        int maxFrameLength = trailer.getInt(8);
+        if (maxFrameLength <= 0) {
+            throw new IOException("Некорректная длина сообщения: " + maxFrameLength);
+        }
+        return new Handshake(trailer.getInt(0), trailer.getInt(4), maxFrameLength, Math.max(0, trailer.getInt(12)));
+    }
+
+    // кадр целиком: длина + сообщение v1 + параметры
+    public int frameLength(Message message) {
+        return MessageCodec.frameLength(message) + LENGTH;
+    }
+
+    public void writeFrame(Message message, ByteBuffer out) {
+        out.putInt(MessageCodec.encodedLength(message) + LENGTH);
+        MessageCodec.encode(message, out);
+        out.putInt(version);
+        out.putInt(capabilities);
+        out.putInt(maxFrameLength);
+        out.putInt(compressionThreshold);
+    }
+}
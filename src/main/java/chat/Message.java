@@ -1,27 +1,38 @@
 package chat;
 
-import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 public class Message implements Serializable {
     public enum Type {
         TEXT,       // обычное сообщение
         JOIN_ROOM,  // войти в комнату
         CREATE_ROOM, // создать комнату
-        SYSTEM      // системное сообщение
+        SYSTEM,     // системное сообщение
+        HELLO,      // клиент знакомится: версия, возможности, предел кадра (Handshake)
+        WELCOME     // ответ сервера на HELLO; клиентам без HELLO не отправляется
     }
 
     private Type type;
     private String username;
     private String content;
     private String room;
+    private long sequence;  // номер сообщения в комнате, ставит сервер; 0 - без номера
+    private long timestamp; // когда сервер принял сообщение, мс от 1970; 0 - неизвестно
 
     // конструкторы
     public Message(Type type, String username, String content, String room) {
+        this(type, username, content, room, 0, 0);
+    }
+
+    public Message(Type type, String username, String content, String room, long sequence, long timestamp) {
         this.type = type;
         this.username = (username != null) ? username : "Unknown";
         this.content = (content != null) ? content : "";
         this.room = (room != null) ? room : "general";
+        this.sequence = sequence;
+        this.timestamp = timestamp;
     }
 
     // для обычного сообщения
@@ -36,53 +47,28 @@ public class Message implements Serializable {
 
     // сериализация в байты
     public byte[] toBytes() {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (DataOutputStream dos = new DataOutputStream(baos)) {
-            dos.writeInt(type.ordinal());
-            writeString(dos, username);
-            writeString(dos, content);
-            writeString(dos, room);
-            return baos.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException("ошибка сериализации", e);
-        }
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.encodedLength(this));
+        MessageCodec.encode(this, buffer);
+        return buffer.array();
     }
 
     // десериализация из байтов
     public Message(byte[] data) throws IOException {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(data);
-             DataInputStream dis = new DataInputStream(bais)) {
-
-            int typeOrdinal = dis.readInt();
-            this.type = Type.values()[typeOrdinal];
-            this.username = readString(dis);
-            this.content = readString(dis);
-            this.room = readString(dis);
-        }
-    }
-
-    private void writeString(DataOutputStream dos, String str) throws IOException {
-        if (str == null) {
-            dos.writeInt(0);
-        } else {
-            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
-            dos.writeInt(bytes.length);
-            dos.write(bytes);
-        }
-    }
-
-    private String readString(DataInputStream dis) throws IOException {
-        int length = dis.readInt();
-        if (length == 0) return "";
-        byte[] bytes = new byte[length];
-        dis.readFully(bytes);
-        return new String(bytes, StandardCharsets.UTF_8);
+        MessageView view = new MessageView().wrap(ByteBuffer.wrap(data));
+        this.type = view.getType();
+        this.username = view.getUsername();
+        this.content = view.getContent();
+        this.room = view.getRoom();
+        this.sequence = view.getSequence();
+        this.timestamp = view.getTimestamp();
     }
 
     public Type getType() { return type; }
     public String getUsername() { return username; }
     public String getContent() { return content; }
     public String getRoom() { return room; }
+    public long getSequence() { return sequence; }
+    public long getTimestamp() { return timestamp; }
 
     @Override
     public String toString() {
@@ -0,0 +1,141 @@
+package chat;
+
+import java.nio.ByteBuffer;
+
+// кодирование сообщений прямо в ByteBuffer, без промежуточных потоков и массивов;
+// формат тот же, что у Message.toBytes(): тип (int), затем три строки "длина (int) + UTF-8",
+// у сообщений чата от сервера в конце еще метка: номер в комнате (long) и время приема на сервере (long, мс).
+// старые клиенты хвост после комнаты не читают
+public final class MessageCodec {
+    static final int STAMP_LENGTH = 16;   // номер + время
+
+    private MessageCodec() {
+    }
+
+    // размер сообщения в байтах без префикса длины кадра
+    public static int encodedLength(Message message) {
+        return 4 + stringLength(message.getUsername())
+                + stringLength(message.getContent())
+                + stringLength(message.getRoom())
+                + (message.getSequence() != 0 ? STAMP_LENGTH : 0);
+    }
+
+    // пишу сообщение в буфер вызывающего, места должно хватить на encodedLength
+    public static void encode(Message message, ByteBuffer out) {
+        out.putInt(message.getType().ordinal());
+        putString(out, message.getUsername());
+        putString(out, message.getContent());
+        putString(out, message.getRoom());
+        if (message.getSequence() != 0) {
+            out.putLong(message.getSequence());
+            out.putLong(message.getTimestamp());
+        }
+    }
+
+    // размер кадра целиком: префикс длины + сообщение
+    public static int frameLength(Message message) {
+        return 4 + encodedLength(message);
+    }
+
+    // пишу кадр "длина + сообщение" в буфер вызывающего
+    public static void writeFrame(Message message, ByteBuffer out) {
+        out.putInt(encodedLength(message));
+        encode(message, out);
+    }
+
+    // готовый кадр в новом буфере, уже перевернут для отправки
+    public static ByteBuffer encodeFrame(Message message) {
+        ByteBuffer frame = ByteBuffer.allocate(frameLength(message));
+        writeFrame(message, frame);
+        frame.flip();
+        return frame;
+    }
+
+    // размер кадра для пересылки текста сырыми байтами
+    public static int frameLength(String username, ByteBuffer content, String room) {
+        return frameLength(username, content, room, 0);
+    }
+
+    public static int frameLength(String username, ByteBuffer content, String room, long sequence) {
+        return 4 + 4 + stringLength(username) + 4 + content.remaining() + stringLength(room)
+                + (sequence != 0 ? STAMP_LENGTH : 0);
+    }
+
+    // кадр для пересылки: текст беру сырыми байтами из входящего кадра, не раскодируя его
+    public static void writeFrame(Message.Type type, String username, ByteBuffer content, String room, ByteBuffer out) {
+        writeFrame(type, username, content, room, 0, 0, out);
+    }
+
+    // sequence - номер сообщения в комнате, 0 - без метки; timestamp - время приема на сервере
+    public static void writeFrame(Message.Type type, String username, ByteBuffer content, String room,
+                                  long sequence, long timestamp, ByteBuffer out) {
+        out.putInt(frameLength(username, content, room, sequence) - 4);
+        out.putInt(type.ordinal());
+        putString(out, username);
+        out.putInt(content.remaining());
+        out.put(content.duplicate()); // позицию чужого буфера не трогаю
+        putString(out, room);
+        if (sequence != 0) {
+            out.putLong(sequence);
+            out.putLong(timestamp);
+        }
+    }
+
+    private static int stringLength(String str) {
+        return 4 + utf8Length(str);
+    }
+
+    private static void putString(ByteBuffer out, String str) {
+        int lengthPosition = out.position();
+        out.position(lengthPosition + 4); // длину запишу, когда узнаю
+        putUtf8(out, str);
+        out.putInt(lengthPosition, out.position() - lengthPosition - 4);
+    }
+
+    // сколько байт займет строка в UTF-8
+    static int utf8Length(String str) {
+        int length = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < str.length()
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                length += 4; // суррогатная пара - один символ из 4 байт
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1; // одинокий суррогат заменяю на '?', как String.getBytes
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    static void putUtf8(ByteBuffer out, String str) {
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < str.length()
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                out.put((byte) (0xF0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
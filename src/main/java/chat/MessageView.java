@@ -0,0 +1,224 @@
+package chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// взгляд на закодированное сообщение без копирования: строки раскодирую только по запросу.
+// объект переиспользуется, после следующего wrap старые данные недействительны
+public final class MessageView {
+    private static final Message.Type[] TYPES = Message.Type.values();
+
+    private ByteBuffer frame;
+    private Message.Type type;
+    private int usernameOffset, usernameLength;
+    private int contentOffset, contentLength;
+    private int roomOffset, roomLength;
+    private int fieldOffset, fieldLength; // куда указывает последнее прочитанное поле-строка v2
+    private int fieldRef; // id, если последнее поле v2 было ссылкой
+    private NameTable names; // для v2: по ней разрешаю ссылки, только когда спросят
+    private int usernameRef, roomRef;
+    private long sequence;  // метка из хвоста кадра: номер в комнате, 0 - метки нет
+    private long timestamp; // и время приема на сервере, 0 - неизвестно
+    private int trailerOffset; // где кончается комната и начинается хвост кадра
+
+    private String username; // раскодированные строки, пока никто не спросил - null
+    private String content;
+    private String room;
+
+    // разбираю только заголовки; frame от position до limit - одно сообщение без префикса длины
+    public MessageView wrap(ByteBuffer frame) throws IOException {
+        this.frame = frame;
+        this.username = null;
+        this.content = null;
+        this.room = null;
+        this.names = null;
+        this.usernameRef = 0;
+        this.roomRef = 0;
+
+        int position = frame.position();
+        int limit = frame.limit();
+        if (limit - position < 4) {
+            throw new IOException("Сообщение слишком короткое");
+        }
+        int typeOrdinal = frame.getInt(position);
+        if (typeOrdinal < 0 || typeOrdinal >= TYPES.length) {
+            throw new IOException("Неизвестный тип сообщения: " + typeOrdinal);
+        }
+        type = TYPES[typeOrdinal];
+        position += 4;
+
+        usernameLength = fieldLength(position, limit);
+        usernameOffset = position + 4;
+        position = usernameOffset + usernameLength;
+
+        contentLength = fieldLength(position, limit);
+        contentOffset = position + 4;
+        position = contentOffset + contentLength;
+
+        roomLength = fieldLength(position, limit);
+        roomOffset = position + 4;
+        position = roomOffset + roomLength;
+
+        // хвост после комнаты раньше не читался никем, поэтому метка там не мешает старым клиентам
+        readStamp(frame, position, limit - position);
+        return this;
+    }
+
+    // то же для формата v2 (CompactCodec): ссылки на id разрешаю через names, новые id запоминаю в names
+    public MessageView wrapCompact(ByteBuffer frame, NameTable names) throws IOException {
+        this.frame = frame;
+        this.username = null;
+        this.content = null;
+        this.room = null;
+        this.names = names;
+
+        ByteBuffer in = frame.duplicate();
+        if (!in.hasRemaining()) {
+            throw new IOException("Сообщение слишком короткое");
+        }
+        type = CompactCodec.type(in.get() & 0xFF);
+
+        username = compactField(in, names, true);
+        usernameOffset = fieldOffset;
+        usernameLength = fieldLength;
+        usernameRef = fieldRef;
+
+        contentLength = checkedVarint(in);
+        contentOffset = in.position();
+        skip(in, contentLength);
+
+        room = compactField(in, names, false);
+        roomOffset = fieldOffset;
+        roomLength = fieldLength;
+        roomRef = fieldRef;
+
+        readStamp(in, in.position(), in.remaining());
+        return this;
+    }
+
+    // метка в хвосте: номер, затем время - либо целиком, либо ее нет.
+    // метку ставят только сообщениям чата, у HELLO/WELCOME в хвосте параметры знакомства
+    private void readStamp(ByteBuffer buffer, int position, int remaining) {
+        trailerOffset = position;
+        boolean stamped = type == Message.Type.TEXT && remaining >= MessageCodec.STAMP_LENGTH;
+        sequence = stamped ? buffer.getLong(position) : 0;
+        timestamp = stamped ? buffer.getLong(position + Long.BYTES) : 0;
+    }
+
+    // поле v2: возвращаю уже готовую строку (новый id) или null, если строку или ссылку разрешу позже
+    private String compactField(ByteBuffer in, NameTable names, boolean user) throws IOException {
+        int tag = checkedVarint(in);
+        fieldOffset = 0;
+        fieldLength = 0;
+        fieldRef = 0;
+
+        if ((tag & 1) == 1) { // ссылка - в таблицу загляну, только если спросят
+            fieldRef = tag >>> 1;
+            return null;
+        }
+
+        int length = tag >>> 2;
+        int id = (tag & 2) != 0 ? checkedVarint(in) : 0;
+        fieldOffset = in.position();
+        fieldLength = length;
+        skip(in, length);
+        if (id == 0) return null; // обычная строка - раскодирую, если спросят
+
+        String name = decode(fieldOffset, length); // новый id - запоминаю сразу
+        if (user) {
+            names.defineUser(id, name);
+        } else {
+            names.defineRoom(id, name);
+        }
+        return name;
+    }
+
+    private static int checkedVarint(ByteBuffer in) throws IOException {
+        int value = CompactCodec.readVarint(in);
+        if (value < 0) {
+            throw new IOException("Обрезанное сообщение");
+        }
+        return value;
+    }
+
+    private static void skip(ByteBuffer in, int length) throws IOException {
+        if (length > in.remaining()) {
+            throw new IOException("Некорректная длина поля: " + length);
+        }
+        in.position(in.position() + length);
+    }
+
+    private int fieldLength(int position, int limit) throws IOException {
+        if (limit - position < 4) {
+            throw new IOException("Обрезанное сообщение");
+        }
+        int length = frame.getInt(position);
+        if (length < 0 || length > limit - position - 4) {
+            throw new IOException("Некорректная длина поля: " + length);
+        }
+        return length;
+    }
+
+    public Message.Type getType() { return type; }
+
+    // для ссылки на неизвестный id - null
+    public String getUsername() {
+        if (username == null) {
+            username = usernameRef > 0 ? names.user(usernameRef) : decode(usernameOffset, usernameLength);
+        }
+        return username;
+    }
+
+    public String getContent() {
+        if (content == null) content = decode(contentOffset, contentLength);
+        return content;
+    }
+
+    public String getRoom() {
+        if (room == null) {
+            room = roomRef > 0 ? names.room(roomRef) : decode(roomOffset, roomLength);
+        }
+        return room;
+    }
+
+    // номер сообщения в комнате, который поставил сервер; 0 - сообщение без номера
+    public long getSequence() { return sequence; }
+
+    // хвост кадра после комнаты: у сообщений чата там метка, у знакомства - его параметры
+    public ByteBuffer trailer() {
+        return frame.slice(trailerOffset, frame.limit() - trailerOffset);
+    }
+
+    // когда сервер принял сообщение (мс от 1970), его часами; 0 - неизвестно
+    public long getTimestamp() { return timestamp; }
+
+    // сырые байты текста (UTF-8), живут пока жив кадр
+    public ByteBuffer contentBytes() {
+        return frame.duplicate().limit(contentOffset + contentLength).position(contentOffset).slice();
+    }
+
+    // текст пустой или из одних пробелов - проверяю по байтам, строку не создаю
+    public boolean isContentBlank() {
+        for (int i = contentOffset; i < contentOffset + contentLength; i++) {
+            byte b = frame.get(i);
+            if (b < 0 || b > ' ') return false; // как String.trim: пробелы - только символы до U+0020
+        }
+        return true;
+    }
+
+    // полноценное сообщение, если оно нужно дольше, чем живет кадр
+    public Message toMessage() {
+        return new Message(type, getUsername(), getContent(), getRoom(), sequence, timestamp);
+    }
+
+    private String decode(int offset, int length) {
+        if (length == 0) return "";
+        if (frame.hasArray()) {
+            return new String(frame.array(), frame.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length]; // прямой буфер - без копии не обойтись
+        frame.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
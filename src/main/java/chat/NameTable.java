@@ -0,0 +1,10 @@
+package chat;
+
+// id пользователей и комнат формата v2 -> имена; у сервера и у клиента своя таблица
+public interface NameTable {
+    String user(int id);   // null, если такого id не знаю
+    String room(int id);
+
+    void defineUser(int id, String name); // пришла строка с новым id
+    void defineRoom(int id, String name);
+}
@@ -0,0 +1,55 @@
+package chat;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// буфер из пула со счетчиком ссылок: один кадр рассылки могут держать сразу несколько соединений,
+// в пул он вернется, когда release позовут столько же раз, сколько acquire + retain
+public final class PooledBuffer {
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private Cleaner.Cleanable leakCheck; // только у буферов, выбранных для проверки
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    // еще один владелец
+    public PooledBuffer retain() {
+        if (refCount.getAndIncrement() <= 0) {
+            refCount.decrementAndGet();
+            throw new IllegalStateException("буфер уже возвращен в пул");
+        }
+        return this;
+    }
+
+    // владелец больше не нужен; последний возвращает буфер в пул
+    public void release() {
+        int left = refCount.decrementAndGet();
+        if (left > 0) return;
+        if (left < 0) {
+            throw new IllegalStateException("буфер возвращен в пул дважды");
+        }
+        if (leakCheck != null) {
+            leakCheck.clean(); // снимаю проверку: все отпустили честно
+        }
+        pool.recycle(buffer);
+    }
+
+    void trackLeaks(Cleaner cleaner, LongAdder leaks) {
+        AtomicInteger refs = refCount; // действие не должно держать сам PooledBuffer, иначе GC его не соберет
+        leakCheck = cleaner.register(this, () -> {
+            if (refs.get() > 0) {
+                leaks.increment();
+            }
+        });
+    }
+}
@@ -3,14 +3,23 @@ package chat.client;
 import chat.Message;
 import chat.client.network.NetworkClient;
 import javax.swing.*;
-import javax.swing.text.*;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ChatClientGUI {
+    private static final int MAX_DRAIN_BATCH = 500; // столько сообщений за раз, чтобы окно не замирало при потоке
+
     private JFrame frame;
-    private JTextPane chatArea;
+    private JList<ChatLine> chatArea;
+    private ChatListModel chatLines;
+    private final List<ChatLine> pendingLines = new ArrayList<>(); // строки пачки, еще не отданные списку
     private JTextField messageField;
     private JTextField roomField;
     private JButton sendButton;
@@ -22,6 +31,10 @@ public class ChatClientGUI {
     private String username;
     private String currentRoom = "";
 
+    // сообщения из сетевого потока копятся здесь, в поток окна уходит одна задача на пачку
+    private final Queue<Message> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
     private Color pinkLight = new Color(255, 240, 245);
     private Color pinkMedium = new Color(255, 182, 193);
     private Color pinkDark = new Color(219, 112, 147);
@@ -61,6 +74,21 @@ public class ChatClientGUI {
                     }
                 });
             }
+
+            @Override
+            public void onMessagesMissed(String room, long count) {
+                // через ту же очередь, что и сообщения: строка встанет ровно на место пропуска
+                handleIncomingMessage(new Message(Message.Type.SYSTEM, "система",
+                        "Пропущено сообщений: " + count, room));
+            }
+
+            @Override
+            public void onReconnecting(long delayMillis) {
+                SwingUtilities.invokeLater(() -> {
+                    statusLabel.setText("Переподключение через " + (delayMillis + 999) / 1000 + " с...");
+                    statusLabel.setForeground(Color.ORANGE);
+                });
+            }
         });
     }
 
@@ -93,27 +121,27 @@ public class ChatClientGUI {
         topPanel.add(nameLabel, BorderLayout.EAST);
         frame.add(topPanel, BorderLayout.NORTH);
 
-        chatArea = new JTextPane();
-        chatArea.setEditable(false);
-        chatArea.setFont(new Font("Arial", Font.PLAIN, 13));
-        chatArea.setBackground(new Color(255, 250, 250));
-
-        StyledDocument doc = chatArea.getStyledDocument();
-        Style defaultStyle = doc.addStyle("default", null);
-        StyleConstants.setFontFamily(defaultStyle, "Arial");
-        StyleConstants.setFontSize(defaultStyle, 13);
-
-        Style systemStyle = doc.addStyle("system", defaultStyle);
-        StyleConstants.setForeground(systemStyle, pinkDark);
-        StyleConstants.setItalic(systemStyle, true);
-
-        Style myNameStyle = doc.addStyle("myname", defaultStyle);
-        StyleConstants.setForeground(myNameStyle, green);
-        StyleConstants.setBold(myNameStyle, true);
+        ChatLineStore store = null;
+        IOException storeError = null;
+        try {
+            store = ChatLineStore.openTemporary();
+        } catch (IOException e) {
+            storeError = e; // без диска окно помнит только последние строки
+        }
+        chatLines = new ChatListModel(store);
+        if (storeError != null) {
+            chatLines.append(List.of(ChatListModel.storeError(storeError)), null);
+        }
 
-        Style otherNameStyle = doc.addStyle("othername", defaultStyle);
-        StyleConstants.setForeground(otherNameStyle, purple);
-        StyleConstants.setBold(otherNameStyle, true);
+        // список рисует только видимые строки, все строки одной высоты
+        Font chatFont = new Font("Arial", Font.PLAIN, 13);
+        ChatLineRenderer renderer = new ChatLineRenderer(chatFont, green, purple, pinkDark, pinkLight);
+        chatArea = new JList<>(chatLines);
+        chatArea.setCellRenderer(renderer);
+        chatArea.setFixedCellHeight(renderer.cellHeight());
+        chatArea.setFixedCellWidth(1); // ширину берет у окна, а не меряет каждую строку
+        chatArea.setBackground(new Color(255, 250, 250));
+        ToolTipManager.sharedInstance().registerComponent(chatArea);
 
         JScrollPane scrollPane = new JScrollPane(chatArea);
         scrollPane.setBorder(BorderFactory.createTitledBorder("💬 Сообщения"));
@@ -186,68 +214,87 @@ public class ChatClientGUI {
         }).start();
     }
 
+    // вызывается из сетевого потока: кладу в очередь и бужу поток окна, если он еще не разбуден
     private void handleIncomingMessage(Message message) {
-        SwingUtilities.invokeLater(() -> {
-            switch (message.getType()) {
-                case TEXT:
-                    displayChatMessage(message);
-                    break;
-
-                case SYSTEM:
-                    appendSystemMessage("🌸 " + message.getContent());
-                    break;
-
-                case JOIN_ROOM:
-                    if (message.getUsername().equals(username)) {
-                        currentRoom = message.getRoom();
-                        appendSystemMessage("🌸 Вы присоединились к комнате: " + currentRoom);
-                    } else {
-                        appendSystemMessage("🌸 " + message.getUsername() + " присоединился к комнате");
-                    }
-                    break;
-
-                case CREATE_ROOM:
-                    if (message.getUsername().equals(username)) {
-                        currentRoom = message.getRoom();
-                        appendSystemMessage("🌸 Вы создали комнату: " + currentRoom);
-                    } else {
-                        appendSystemMessage("🌸 " + message.getUsername() + " создал комнату");
-                    }
-                    break;
-            }
-        });
+        incoming.add(message);
+        if (drainScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drainIncoming);
+        }
     }
 
-    private void displayChatMessage(Message message) {
-        try {
-            StyledDocument doc = chatArea.getStyledDocument();
-            boolean isMyMessage = message.getUsername().equals(username);
-
-            // Имя пользователя (цветное)
-            if (isMyMessage) {
-                doc.insertString(doc.getLength(), "[Вы] ", doc.getStyle("myname"));
-            } else {
-                doc.insertString(doc.getLength(), "[" + message.getUsername() + "] ",
-                        doc.getStyle("othername"));
-            }
+    // разбираю накопившиеся сообщения: одно изменение списка и одна прокрутка на всю пачку
+    private void drainIncoming() {
+        drainScheduled.set(false); // все, что придет дальше, запланирует новую пачку
+        int count = 0;
+        Message message;
+        while (count < MAX_DRAIN_BATCH && (message = incoming.poll()) != null) {
+            addMessage(message);
+            count++;
+        }
+        showPending();
 
-            doc.insertString(doc.getLength(), message.getContent() + "\n",
-                    doc.getStyle("default"));
+        // остаток разберу следующей задачей, чтобы между пачками окно успевало перерисоваться
+        if (!incoming.isEmpty() && drainScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drainIncoming);
+        }
+    }
 
-            chatArea.setCaretPosition(doc.getLength());
-        } catch (BadLocationException e) {
-            e.printStackTrace();
+    private void addMessage(Message message) {
+        switch (message.getType()) {
+            case TEXT:
+                addChatLine(message.getUsername(), message.getContent());
+                break;
+
+            case SYSTEM:
+                addSystemLine("🌸 " + message.getContent());
+                break;
+
+            case JOIN_ROOM:
+                if (message.getUsername().equals(username)) {
+                    currentRoom = message.getRoom();
+                    addSystemLine("🌸 Вы присоединились к комнате: " + currentRoom);
+                } else {
+                    addSystemLine("🌸 " + message.getUsername() + " присоединился к комнате");
+                }
+                break;
+
+            case CREATE_ROOM:
+                if (message.getUsername().equals(username)) {
+                    currentRoom = message.getRoom();
+                    addSystemLine("🌸 Вы создали комнату: " + currentRoom);
+                } else {
+                    addSystemLine("🌸 " + message.getUsername() + " создал комнату");
+                }
+                break;
         }
     }
 
+    private void addChatLine(String author, String content) {
+        ChatLine.Kind kind = author.equals(username) ? ChatLine.Kind.MINE : ChatLine.Kind.OTHER;
+        pendingLines.add(new ChatLine(kind, author, content));
+    }
+
+    private void addSystemLine(String text) {
+        pendingLines.add(ChatLine.system(text));
+    }
+
+    // отдаю накопленные строки списку; прокручиваю вниз, только если пользователь и так был внизу
+    private void showPending() {
+        if (pendingLines.isEmpty()) return;
+        boolean atBottom = isScrolledToBottom();
+        // строки появятся в списке после записи на диск, тогда и прокручу
+        chatLines.append(pendingLines, atBottom ? () -> chatArea.ensureIndexIsVisible(chatLines.getSize() - 1) : null);
+        pendingLines.clear();
+    }
+
+    private boolean isScrolledToBottom() {
+        int last = chatArea.getLastVisibleIndex();
+        return last < 0 || last >= chatLines.getSize() - 1;
+    }
+
     private void appendSystemMessage(String text) {
-        try {
-            StyledDocument doc = chatArea.getStyledDocument();
-            doc.insertString(doc.getLength(), text + "\n", doc.getStyle("system"));
-            chatArea.setCaretPosition(doc.getLength());
-        } catch (BadLocationException e) {
-            e.printStackTrace();
-        }
+        addSystemLine(text);
+        showPending();
     }
 
     private void sendMessage() {
@@ -260,14 +307,8 @@ public class ChatClientGUI {
         }
 
         // Сразу показываем свое сообщение в чате
-        try {
-            StyledDocument doc = chatArea.getStyledDocument();
-            doc.insertString(doc.getLength(), "[Вы] ", doc.getStyle("myname"));
-            doc.insertString(doc.getLength(), text + "\n", doc.getStyle("default"));
-            chatArea.setCaretPosition(doc.getLength());
-        } catch (BadLocationException e) {
-            e.printStackTrace();
-        }
+        addChatLine(username, text);
+        showPending();
 
         networkClient.sendMessage(text, currentRoom);
         messageField.setText("");
@@ -304,6 +345,7 @@ public class ChatClientGUI {
                 networkClient.disconnect();
             }
             frame.dispose();
+            chatLines.close(); // удаляю историю окна с диска
         }
     }
 
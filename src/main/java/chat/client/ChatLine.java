@@ -0,0 +1,42 @@
+package chat.client;
+
+// одна строка окна чата; строки не меняются, поэтому их можно спокойно кешировать
+final class ChatLine {
+    enum Kind {
+        MINE,  // мое сообщение
+        OTHER, // сообщение другого участника
+        SYSTEM // служебная строка
+    }
+
+    final Kind kind;
+    final String author; // пустая строка у служебных
+    final String text;
+
+    ChatLine(Kind kind, String author, String text) {
+        this.kind = kind;
+        this.author = author;
+        this.text = text;
+    }
+
+    static ChatLine system(String text) {
+        return new ChatLine(Kind.SYSTEM, "", text);
+    }
+
+    // то, что видно в окне перед текстом
+    String prefix() {
+        switch (kind) {
+            case MINE:
+                return "[Вы] ";
+            case OTHER:
+                return "[" + author + "] ";
+            default:
+                return "";
+        }
+    }
+
+    // так строка копируется из списка в буфер обмена
+    @Override
+    public String toString() {
+        return prefix() + text;
+    }
+}
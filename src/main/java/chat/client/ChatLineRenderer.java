@@ -0,0 +1,86 @@
+package chat.client;
+
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.ListCellRenderer;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+
+// рисую строку чата сама, без разметки и вложенных компонентов: строка всегда одной высоты,
+// поэтому списку не нужно измерять все сообщения. не влезшее в ширину видно во всплывающей подсказке
+class ChatLineRenderer extends JComponent implements ListCellRenderer<ChatLine> {
+    private static final int PADDING = 4;
+
+    private final Font textFont;
+    private final Font nameFont;
+    private final Font systemFont;
+    private final Color myNameColor;
+    private final Color otherNameColor;
+    private final Color systemColor;
+    private final Color selectionColor;
+
+    private ChatLine line;
+    private boolean selected;
+
+    ChatLineRenderer(Font font, Color myNameColor, Color otherNameColor, Color systemColor, Color selectionColor) {
+        this.textFont = font;
+        this.nameFont = font.deriveFont(Font.BOLD);
+        this.systemFont = font.deriveFont(Font.ITALIC);
+        this.myNameColor = myNameColor;
+        this.otherNameColor = otherNameColor;
+        this.systemColor = systemColor;
+        this.selectionColor = selectionColor;
+        setOpaque(true);
+    }
+
+    // высота строки для JList.setFixedCellHeight
+    int cellHeight() {
+        return getFontMetrics(nameFont).getHeight() + PADDING;
+    }
+
+    @Override
+    public Component getListCellRendererComponent(JList<? extends ChatLine> list, ChatLine value, int index,
+                                                  boolean isSelected, boolean cellHasFocus) {
+        this.line = value;
+        this.selected = isSelected;
+        setBackground(list.getBackground());
+        setForeground(list.getForeground());
+        setToolTipText(value.toString());
+        return this;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setColor(selected ? selectionColor : getBackground());
+        g2.fillRect(0, 0, getWidth(), getHeight());
+        if (line == null) return;
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+        FontMetrics metrics = g2.getFontMetrics(textFont);
+        int baseline = (getHeight() - metrics.getHeight()) / 2 + metrics.getAscent();
+        int x = PADDING;
+
+        if (line.kind == ChatLine.Kind.SYSTEM) {
+            g2.setFont(systemFont);
+            g2.setColor(systemColor);
+            g2.drawString(line.text.replace('\n', ' '), x, baseline); // строка одна, переносы не рисую
+            return;
+        }
+
+        String prefix = line.prefix();
+        g2.setFont(nameFont);
+        g2.setColor(line.kind == ChatLine.Kind.MINE ? myNameColor : otherNameColor);
+        g2.drawString(prefix, x, baseline);
+        x += g2.getFontMetrics().stringWidth(prefix);
+
+        g2.setFont(textFont);
+        g2.setColor(getForeground());
+        g2.drawString(line.text.replace('\n', ' '), x, baseline);
+    }
+}
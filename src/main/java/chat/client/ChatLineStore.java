@@ -0,0 +1,130 @@
+package chat.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// все строки окна чата на диске, чтобы в памяти держать только последние.
+// lines.dat - записи [вид][длина автора][автор][длина текста][текст], lines.idx - по 8 байт смещения на строку
+final class ChatLineStore implements Closeable {
+    private static final int INDEX_ENTRY = 8;
+
+    private final Path directory;
+    private final FileChannel data;
+    private final FileChannel index;
+    // пишет и читает поток диска ChatListModel, size() спрашивает EDT
+    private volatile long dataEnd = 0;
+    private volatile int count = 0;
+
+    private ChatLineStore(Path directory) throws IOException {
+        this.directory = directory;
+        this.data = FileChannel.open(directory.resolve("lines.dat"), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.index = FileChannel.open(directory.resolve("lines.idx"), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // история живет, пока открыто окно: при закрытии файлы удаляются
+    static ChatLineStore openTemporary() throws IOException {
+        return new ChatLineStore(Files.createTempDirectory("chat-client-"));
+    }
+
+    int size() {
+        return count;
+    }
+
+    // дописываю пачку строк: одна запись в файл данных и одна в индекс
+    void append(List<ChatLine> lines) throws IOException {
+        byte[][] authors = new byte[lines.size()][];
+        byte[][] texts = new byte[lines.size()][];
+        int dataLength = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            authors[i] = lines.get(i).author.getBytes(StandardCharsets.UTF_8);
+            texts[i] = lines.get(i).text.getBytes(StandardCharsets.UTF_8);
+            dataLength += 1 + 4 + authors[i].length + 4 + texts[i].length;
+        }
+
+        ByteBuffer records = ByteBuffer.allocate(dataLength);
+        ByteBuffer offsets = ByteBuffer.allocate(lines.size() * INDEX_ENTRY);
+        for (int i = 0; i < lines.size(); i++) {
+            offsets.putLong(dataEnd + records.position());
+            records.put((byte) lines.get(i).kind.ordinal());
+            records.putInt(authors[i].length).put(authors[i]);
+            records.putInt(texts[i].length).put(texts[i]);
+        }
+        records.flip();
+        offsets.flip();
+
+        writeFully(data, records, dataEnd);
+        writeFully(index, offsets, (long) count * INDEX_ENTRY);
+        dataEnd += dataLength;
+        count += lines.size();
+    }
+
+    // строки с from по from + length - 1
+    ChatLine[] read(int from, int length) throws IOException {
+        long start = readOffset(from);
+        long end = from + length < count ? readOffset(from + length) : dataEnd;
+
+        ByteBuffer records = ByteBuffer.allocate((int) (end - start));
+        readFully(data, records, start);
+        records.flip();
+
+        ChatLine.Kind[] kinds = ChatLine.Kind.values();
+        ChatLine[] lines = new ChatLine[length];
+        for (int i = 0; i < length; i++) {
+            ChatLine.Kind kind = kinds[records.get()];
+            String author = readString(records);
+            String text = readString(records);
+            lines[i] = new ChatLine(kind, author, text);
+        }
+        return lines;
+    }
+
+    @Override
+    public void close() {
+        try {
+            data.close();
+            index.close();
+            Files.deleteIfExists(directory.resolve("lines.dat"));
+            Files.deleteIfExists(directory.resolve("lines.idx"));
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            // временные файлы удалит система
+        }
+    }
+
+    private long readOffset(int line) throws IOException {
+        ByteBuffer offset = ByteBuffer.allocate(INDEX_ENTRY);
+        readFully(index, offset, (long) line * INDEX_ENTRY);
+        return offset.getLong(0);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("История обрывается на позиции " + position);
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package chat.client;
+
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// модель списка сообщений: в памяти последние TAIL_SIZE строк и несколько страниц старых,
+// все остальное читаю из ChatLineStore, когда до него долистают. память не растет, сколько бы ни шел чат.
+// с диском EDT не работает: пишет и читает один фоновый поток по очереди. новые строки появляются в списке,
+// когда записаны, а пока страница грузится, на ее месте строка-заглушка
+class ChatListModel extends AbstractListModel<ChatLine> {
+    static final int TAIL_SIZE = 1000; // последние строки, которые всегда под рукой
+    private static final int PAGE_SIZE = 256; // столько старых строк читаю с диска за раз
+    private static final int MAX_PAGES = 8;   // сколько прочитанных страниц держу
+    private static final ChatLine LOADING = ChatLine.system("🌸 Загрузка...");
+
+    private final ChatLine[] tail = new ChatLine[TAIL_SIZE]; // кольцо, строка n лежит в tail[n % TAIL_SIZE]
+    private int total = 0; // сколько строк было всего
+    private int first = 0; // номер самой старой доступной строки; растет, только если диска нет
+    private ChatLineStore store; // null - на диск писать не вышло, живу одним кольцом
+    private final ExecutorService disk = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "chat-history-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // страницы старых строк, вытесняю давно не нужные
+    private final Map<Integer, ChatLine[]> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ChatLine[]> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    private final Set<Integer> loading = new HashSet<>(); // страницы, которые сейчас читаются (только EDT)
+    private boolean storeFailed = false; // запись не удалась, дальше на диск не пишу (только поток диска)
+
+    ChatListModel(ChatLineStore store) {
+        this.store = store;
+    }
+
+    // строка для окна: историю на диск сохранить не вышло
+    static ChatLine storeError(IOException e) {
+        return ChatLine.system("🌸 Не удалось сохранить историю: " + e.getMessage()
+                + ". Старые сообщения будут забываться");
+    }
+
+    @Override
+    public int getSize() {
+        return total - first;
+    }
+
+    // JList с фиксированной высотой строки спрашивает только видимые строки
+    @Override
+    public ChatLine getElementAt(int index) {
+        int line = first + index;
+        if (line >= total - TAIL_SIZE) {
+            return tail[line % TAIL_SIZE];
+        }
+        int page = line / PAGE_SIZE;
+        ChatLine[] lines = pages.get(page);
+        if (page > 0 && !pages.containsKey(page - 1)) {
+            load(page - 1); // листают вверх: следующую страницу читаю заранее
+        }
+        if (lines == null) {
+            load(page);
+            return LOADING;
+        }
+        return lines[line % PAGE_SIZE];
+    }
+
+    // читаю страницу в фоне; готовую кладу в кеш уже в EDT и прошу список перерисовать ее строки
+    private void load(int page) {
+        if (store == null || !loading.add(page)) return;
+        ChatLineStore reader = store;
+        int from = page * PAGE_SIZE;
+        int length = Math.min(PAGE_SIZE, store.size() - from);
+
+        disk.execute(() -> {
+            ChatLine[] read;
+            try {
+                read = reader.read(from, length);
+            } catch (IOException e) {
+                read = new ChatLine[length]; // ошибку показываю первой строкой страницы, остальные пустые
+                read[0] = ChatLine.system("🌸 Не удалось прочитать историю: " + e.getMessage());
+                Arrays.fill(read, 1, length, ChatLine.system(""));
+            }
+            ChatLine[] lines = read;
+            SwingUtilities.invokeLater(() -> {
+                loading.remove(page);
+                if (store != reader) return; // историю закрыли, пока я читала
+                pages.put(page, lines);
+                fireContentsChanged(this, from - first, from + length - 1 - first);
+            });
+        });
+    }
+
+    // добавляю пачку строк в конец: пишу на диск в фоне, в список они попадут одним событием, когда запишутся.
+    // shown (может быть null) позову в EDT, когда строки уже в списке
+    void append(List<ChatLine> lines, Runnable shown) {
+        if (lines.isEmpty() || disk.isShutdown()) return;
+        List<ChatLine> batch = new ArrayList<>(lines);
+        ChatLineStore writer = store;
+        disk.execute(() -> { // и без диска иду через очередь: пачки не обгонят те, что еще пишутся
+            IOException error = null;
+            if (writer != null && !storeFailed) {
+                try {
+                    writer.append(batch);
+                } catch (IOException e) {
+                    storeFailed = true;
+                    error = e;
+                }
+            }
+            IOException failure = error;
+            SwingUtilities.invokeLater(() -> {
+                if (failure != null && store != null && store == writer) {
+                    closeStore(); // дальше только то, что в памяти
+                    batch.add(storeError(failure));
+                }
+                show(batch, shown);
+            });
+        });
+    }
+
+    private void show(List<ChatLine> lines, Runnable shown) {
+        int oldSize = getSize();
+        for (ChatLine line : lines) {
+            tail[total % TAIL_SIZE] = line;
+            total++;
+        }
+        fireIntervalAdded(this, oldSize, getSize() - 1);
+        if (store == null) {
+            forgetOlderThanTail(); // без диска старое просто забываю
+        }
+        if (shown != null) shown.run();
+    }
+
+    void close() {
+        closeStore();
+        disk.shutdown(); // поток диска допишет очередь, закроет файлы и завершится
+    }
+
+    private void closeStore() {
+        if (store == null) return;
+        disk.execute(store::close); // после всего, что уже стоит в очереди к диску
+        store = null;
+        pages.clear();
+        loading.clear(); // то, что еще читается, выброшу, когда дочитается
+        forgetOlderThanTail(); // страниц с диска больше нет
+    }
+
+    private void forgetOlderThanTail() {
+        int keepFrom = Math.max(first, total - TAIL_SIZE);
+        if (keepFrom > first) {
+            int removed = keepFrom - first;
+            first = keepFrom;
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+    }
+}
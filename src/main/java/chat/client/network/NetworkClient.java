@@ -1,26 +1,108 @@
 package chat.client.network;
 
+import chat.BufferPool;
+import chat.CompactCodec;
+import chat.FrameCompression;
+import chat.Handshake;
 import chat.Message;
+import chat.MessageCodec;
+import chat.MessageView;
+import chat.NameTable;
+import chat.PooledBuffer;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Inflater;
 
 public class NetworkClient {
-    private SocketChannel socketChannel; // личный канал связи с сервером
-    private Selector selector; // следит за событиями
-    private boolean connected = false; //
+    private static final int MAX_FRAME_LENGTH = 65536; // максимальная длина сообщения
+    private static final int MAX_WRITE_BATCH = 64; // сколько кадров отдаю в один write(ByteBuffer[])
+    private static final long RECONNECT_BASE_MILLIS = 500;   // первая пауза перед переподключением
+    private static final long RECONNECT_MAX_MILLIS = 30_000; // дальше пауза не растет
+    private static final long WELCOME_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(3); // дольше сервер на HELLO не отвечает - значит, не знает его
+
+    // канал и селектор меняются при переподключении, а кадры кладут и другие потоки
+    private volatile SocketChannel socketChannel; // личный канал связи с сервером
+    private volatile Selector selector; // следит за событиями
+    private SelectionKey key;
+    private volatile boolean connected = false; // читают и окно, и сетевой поток
+    private volatile boolean closed = false;    // отключился сам пользователь - больше не переподключаюсь
+    private String host;
+    private int port;
     private String username;
 
+    // переподключение (только сетевой поток): после обрыва возвращаюсь под тем же именем в ту же комнату
+    // и прошу у сервера только то, что пропустила
+    private final String resumeToken = UUID.randomUUID().toString(); // по нему сервер отдаст мне мое же имя
+    private boolean everConnected = false; // пока ни разу не подключилась - ошибка значит неверный адрес, не обрыв
+    private int attempt = 0;        // сколько раз подряд не удалось переподключиться
+    private String room;            // комната, в которой я по словам сервера
+    private long lastSequence = 0;  // номер последнего сообщения этой комнаты, которое я видела
+    private boolean freshStay = true; // только вошла: первый номер - точка отсчета, пропуски до него не считаю
+    // свои сообщения сервер мне не возвращает, а номера они занимают: разрыв на столько номеров - не пропуск
+    private final AtomicLong ownUnseen = new AtomicLong();
+    private final Object reconnectLock = new Object(); // на нем жду паузу, disconnect будит
+
     private MessageListener listener;
+    private final BufferPool pool = BufferPool.shared(); // прямые буферы для чтения и записи
+    private final MessageView messageView = new MessageView(); // разбор входящих (только сетевой поток)
+
+    // входящие копятся здесь между чтениями: недочитанный кадр ждет остатка, а не теряется (только сетевой поток)
+    private PooledBuffer inbound;
+    // исходящие кладет любой поток (окно, сетевой), в сокет пишет только сетевой - никто не ждет на сокете
+    private final Queue<PooledBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<PooledBuffer> writing = new ArrayDeque<>(); // забранные из очереди, еще не дописанные
+    private final ByteBuffer[] writeBatch = new ByteBuffer[MAX_WRITE_BATCH];
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(); // селектор уже будят
+
+    // что прошу у сервера при знакомстве (сеттеры звать до connect)
+    // компактный формат v2: длины в varint, имена и комнаты после первого раза - числовыми id
+    private boolean compactProtocol = true;
+    private boolean compression = true; // сжимать длинные сообщения (только вместе с v2)
+    // сервер не ответил на HELLO: до следующего connect регистрируюсь первым сообщением, в старом формате
+    private boolean helloIgnored = false;
+    private long welcomeDeadline = 0; // System.nanoTime(), до которого жду WELCOME; 0 - не жду (только сетевой поток)
+    // что включено на этом соединении - ответ сервера в WELCOME; пишет сетевой поток, читает и окно
+    private volatile boolean compact = false;
+    private volatile int compressAbove = 0; // свой текст от стольких байт сжимаю (порог сервера); 0 - не сжимаю
+    private volatile int maxFrameLength = MAX_FRAME_LENGTH; // длиннее сервер не примет
+    private Inflater inflater;  // свой на соединение, только сетевой поток
+    private ByteBuffer inflated; // сюда распаковываю сжатое сообщение
+    private final Map<Integer, String> userNames = new ConcurrentHashMap<>();
+    private final Map<Integer, String> roomNames = new ConcurrentHashMap<>();
+    private final Map<String, Integer> roomIds = new ConcurrentHashMap<>(); // чтобы слать комнату числом
+    private final NameTable names = new NameTable() {
+        @Override public String user(int id) { return userNames.get(id); }
+        @Override public String room(int id) { return roomNames.get(id); }
+        @Override public void defineUser(int id, String name) { userNames.put(id, name); }
+        @Override public void defineRoom(int id, String name) {
+            roomNames.put(id, name);
+            roomIds.put(name, id);
+        }
+    };
 
     public interface MessageListener {
         void onMessage(Message message); // когда пришло сообщение
         void onStatusChanged(boolean connected); // когда изменился статус подключения
+        default void onReconnecting(long delayMillis) { } // связь потеряна, следующая попытка через delayMillis
+        default void onMessagesMissed(String room, long count) { } // по номерам видно, что до меня не дошло count сообщений
     }
 
     // кто будет слушать сообщения
@@ -28,49 +110,147 @@ public class NetworkClient {
         this.listener = listener;
     }
 
+    // v2 (по умолчанию) или старый формат - для серверов, которые v2 не знают; звать до connect
+    public void setCompactProtocol(boolean compactProtocol) {
+        this.compactProtocol = compactProtocol;
+    }
+
+    // просить ли сервер сжимать длинные сообщения; звать до connect
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
     // подключаюсь к серверу
     public void connect(String host, int port, String username) throws IOException {
+        this.host = host;
+        this.port = port;
         this.username = username; // сохраняю свое имя
+        this.helloIgnored = false; // другой сервер мог научиться знакомиться
+
+        try {
+            open();
+        } catch (IOException e) {
+            closeConnection();
+            releaseBuffers();
+            throw e;
+        }
+
+        // запускаю отдельный поток для сетевого общения
+        new Thread(this::networkLoop, "network-client").start();
+    }
 
+    // новое соединение: свой селектор, свой канал, пустой входной буфер
+    private void open() throws IOException {
         selector = Selector.open(); // создаю наблюдателя
         socketChannel = SocketChannel.open(); // открываю свой канал
         socketChannel.configureBlocking(false); // делаю его неблокирующим
 
+        // id имен и комнат v2 сервер выдавал прошлому соединению, в новом они ничего не значат
+        userNames.clear();
+        roomNames.clear();
+        roomIds.clear();
+        inbound = pool.acquire(4096);
+
         // начинаю подключение
         socketChannel.connect(new InetSocketAddress(host, port));
         // прошу наблюдателя следить за завершением подключения
-        socketChannel.register(selector, SelectionKey.OP_CONNECT);
-
-        // запускаю отдельный поток для сетевого общения
-        new Thread(this::networkLoop, "network-client").start();
+        key = socketChannel.register(selector, SelectionKey.OP_CONNECT);
     }
 
-    // главный цикл сетевого общения
+    // главный цикл сетевого общения: соединение за соединением, пока пользователь не отключится сам
     private void networkLoop() {
-        try {
-            // пока мой канал открыт
-            while (socketChannel.isOpen()) {
-                selector.select(100); // проверяю события каждые 100мс
-                Set<SelectionKey> keys = selector.selectedKeys(); // получаю список событий
-                Iterator<SelectionKey> it = keys.iterator();
-
-                while (it.hasNext()) {
-                    SelectionKey key = it.next();
-                    it.remove(); // убираю обработанное
-
-                    if (key.isConnectable()) {
-                        handleConnect(key); // подключение
-                    } else if (key.isReadable()) {
-                        handleRead(key); // пришли данные от сервера
-                    }
+        while (true) {
+            boolean helloTimedOut = false;
+            try {
+                helloTimedOut = serve();
+            } catch (Exception e) {
+                // обрыв: сеть, сервер или disconnect закрыл селектор
+            }
+            boolean wasConnected = connected;
+            connected = false;
+            closeConnection();
+            releaseBuffers();
+            if (closed || !everConnected) break;
+
+            if (wasConnected) notifyStatus(false); // если я был подключен - уведомляю об отключении
+            // на HELLO не ответили: сервер здоров, просто старый - захожу заново сразу, без паузы
+            welcomeDeadline = 0;
+            if (helloTimedOut && reopen()) continue;
+            if (!reconnect()) break;
+        }
+    }
+
+    // одно соединение: пока мой канал открыт; true - сервер не ответил на HELLO
+    private boolean serve() throws IOException {
+        while (!closed && socketChannel.isOpen()) {
+            selector.select(100); // проверяю события каждые 100мс
+            wakeupPending.set(false); // все, что положат дальше, снова разбудит селектор
+            Set<SelectionKey> keys = selector.selectedKeys(); // получаю список событий
+            Iterator<SelectionKey> it = keys.iterator();
+
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove(); // убираю обработанное
+
+                if (key.isConnectable()) {
+                    handleConnect(key); // подключение
+                } else if (key.isReadable()) {
+                    handleRead(key); // пришли данные от сервера
                 }
             }
-        } catch (Exception e) {
-            // если была ошибка и я был подключен - уведомляю об отключении
-            if (connected) {
-                notifyStatus(false);
+
+            // не connected: HELLO уходит раньше, чем сервер ответит WELCOME
+            if (socketChannel.isConnected()) {
+                flushOutbound(); // отправляю то, что накопилось, и дописываю начатое
+            }
+            if (welcomeDeadline != 0 && System.nanoTime() - welcomeDeadline > 0) {
+                // старый сервер HELLO не понял и промолчал. на этом же соединении регистрироваться нельзя:
+                // медленный новый сервер мог уже принять HELLO и ждать от меня v2
+                helloIgnored = true;
+                return true;
             }
         }
+        return false;
+    }
+
+    // жду паузу и открываю новое соединение; false - пока ждала, пользователь отключился сам.
+    // пауза растет вдвое с каждой неудачей, а внутри нее беру случайную точку: после перезапуска сервера
+    // тысячи клиентов вернутся вразброс, а не все разом
+    private boolean reconnect() {
+        while (!closed) {
+            long ceiling = Math.min(RECONNECT_MAX_MILLIS, RECONNECT_BASE_MILLIS << Math.min(attempt, 16));
+            long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+            attempt++;
+            notifyReconnecting(delay);
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            synchronized (reconnectLock) {
+                long left;
+                while (!closed && (left = deadline - System.nanoTime()) > 0) {
+                    try {
+                        reconnectLock.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)));
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }
+            }
+            if (closed) return false;
+
+            if (reopen()) return true;
+        }
+        return false;
+    }
+
+    // false - сервер недоступен даже для начала подключения, жду дольше
+    private boolean reopen() {
+        try {
+            open();
+            return true;
+        } catch (IOException e) {
+            closeConnection();
+            releaseBuffers();
+            return false;
+        }
     }
 
     // обработка завершения подключения
@@ -78,71 +258,179 @@ public class NetworkClient {
         SocketChannel channel = (SocketChannel) key.channel();
 
         if (channel.finishConnect()) { // завершаю подключение
-            connected = true; // ставлю флажок "подключен"
             key.interestOps(SelectionKey.OP_READ); // теперь слежу за чтением
-            notifyStatus(true); // сообщаю, что подключился
-
-            // отправляю пустое сообщение с именем - это моя регистрация
-            sendMessageInternal(new Message(username, "", ""));
+            everConnected = true;
+            compact = false; // до согласования - старый формат
+            compressAbove = 0;
+            maxFrameLength = MAX_FRAME_LENGTH;
+
+            // знакомлюсь: имя и в тексте секрет, по которому сервер узнает меня,
+            // если старое соединение у него еще не закрыто
+            if (helloIgnored) {
+                sendMessageInternal(new Message(username, resumeToken, "")); // по-старому: просто имя
+                onRegistered();
+                return;
+            }
+            int capabilities = (compactProtocol ? Handshake.CAP_COMPACT : 0)
+                    | (compactProtocol && compression ? Handshake.CAP_DEFLATE : 0);
+            Handshake hello = new Handshake(Handshake.PROTOCOL_VERSION, capabilities, MAX_FRAME_LENGTH, 0);
+            Message message = new Message(Message.Type.HELLO, username, resumeToken, "");
+            PooledBuffer pooled = pool.acquire(hello.frameLength(message));
+            hello.writeFrame(message, pooled.buffer());
+            writeFrame(pooled); // дальше жду WELCOME
+            welcomeDeadline = System.nanoTime() + WELCOME_TIMEOUT_NANOS;
         } else {
-            notifyStatus(false); // не удалось подключиться
-            disconnect(); // закрываю соединение
+            channel.close(); // не удалось подключиться
+        }
+    }
+
+    // сервер ответил на HELLO: включаю то, что он принял; следующие кадры уже в новом формате
+    private void onWelcome(Handshake welcome) {
+        welcomeDeadline = 0;
+        compact = welcome.has(Handshake.CAP_COMPACT);
+        compressAbove = welcome.has(Handshake.CAP_DEFLATE) ? welcome.getCompressionThreshold() : 0;
+        maxFrameLength = Math.min(MAX_FRAME_LENGTH, welcome.getMaxFrameLength());
+        onRegistered();
+    }
+
+    // регистрация отправлена: после обрыва возвращаюсь в свою комнату; в тексте - докуда я ее видела
+    private void onRegistered() {
+        if (room != null) {
+            sendMessageInternal(new Message(Message.Type.JOIN_ROOM, username, Long.toString(lastSequence), room));
         }
+
+        // окно начнет слать только после регистрации, иначе сервер примет его сообщение за имя
+        connected = true; // ставлю флажок "подключен"
+        notifyStatus(true); // сообщаю, что подключился
     }
 
-    // чтение данных от сервера
+    // чтение данных от сервера: дописываю в конец накопленного
     private void handleRead(SelectionKey key) throws IOException {
         SocketChannel channel = (SocketChannel) key.channel();
-        ByteBuffer buffer = ByteBuffer.allocate(4096); // коробочка для данных
-
+        ByteBuffer buffer = inbound.buffer(); // всегда в режиме записи
         int bytesRead = channel.read(buffer); // читаю что прислал сервер
         if (bytesRead == -1) { // если -1, значит сервер закрыл соединение
-            notifyStatus(false); // сообщаю об отключении
-            disconnect(); // закрываюсь
+            channel.close(); // закрываюсь, цикл сообщит об отключении и переподключится
             return;
         }
 
         if (bytesRead > 0) { // если что-то прочитала
+            attempt = 0; // сервер отвечает - после следующего обрыва снова начну с короткой паузы
             buffer.flip(); // переворачиваю для чтения
-            processIncomingData(buffer); // обрабатываю данные
+            int needed = processIncomingData(buffer); // обрабатываю данные
+            buffer.compact(); // недочитанный кадр - в начало, дальше снова пишу
+            if (needed > buffer.capacity()) {
+                growInbound(needed); // кадр не влезет в буфер - расширяю заранее
+            }
         }
     }
 
-    // разбор входящих данных
-    private void processIncomingData(ByteBuffer buffer) {
+    // разбор входящих данных; возвращаю, сколько места нужно недочитанному кадру (0 - все разобрала)
+    private int processIncomingData(ByteBuffer buffer) {
         try {
-            // пока в буфере достаточно данных для чтения длины сообщения
-            while (buffer.remaining() >= 4) {
-                buffer.mark(); // ставлю метку, чтобы можно было вернуться
-                int length = buffer.getInt(); // читаю длину сообщения
+            // пока в буфере есть данные для чтения длины сообщения
+            while (buffer.hasRemaining()) {
+                int frameStart = buffer.position(); // запоминаю, чтобы можно было вернуться
+                int length; // читаю длину сообщения
+                if (compact) {
+                    length = CompactCodec.readVarint(buffer);
+                    if (length < 0) { // длина пришла не целиком
+                        buffer.position(frameStart);
+                        return 0;
+                    }
+                } else {
+                    if (buffer.remaining() < 4) return 0;
+                    length = buffer.getInt();
+                }
 
                 // проверяю, чтобы длина была нормальной
-                if (length <= 0 || length > 65536) {
-                    disconnect(); // если нет - отключаюсь
-                    return;
+                if (length <= 0 || length > MAX_FRAME_LENGTH) {
+                    dropConnection(); // если нет - отключаюсь
+                    return 0;
                 }
 
                 // проверяю, все ли данные сообщения пришли
                 if (buffer.remaining() < length) {
-                    buffer.reset(); // возвращаюсь к метке
-                    break; // жду следующие данные
+                    int headerLength = buffer.position() - frameStart;
+                    buffer.position(frameStart); // возвращаюсь к началу кадра
+                    return headerLength + length; // остаток дочитаю следующим read
                 }
 
-                // все данные на месте - читаю сообщение
-                byte[] data = new byte[length];
-                buffer.get(data); // копирую в массив
-
-                Message message = new Message(data); // создаю объект сообщения
-                notifyMessage(message); // передаю слушателю
+                // все данные на месте - читаю сообщение прямо из буфера
+                ByteBuffer frame = buffer.slice(buffer.position(), length);
+                if (compact && FrameCompression.isDeflated(frame)) {
+                    frame = inflate(frame); // дальше это обычное сообщение v2
+                }
+                MessageView view = compact ? messageView.wrapCompact(frame, names) : messageView.wrap(frame);
+                buffer.position(buffer.position() + length);
+                if (view.getType() == Message.Type.WELCOME) {
+                    onWelcome(Handshake.read(view)); // слушателю не показываю
+                    continue;
+                }
+                Message message = view.toMessage();
+                if (track(message)) {
+                    notifyMessage(message); // передаю слушателю
+                }
             }
         } catch (Exception e) {
-            disconnect(); // при ошибке - отключаюсь
+            dropConnection(); // при ошибке - отключаюсь
+        }
+        return 0;
+    }
+
+    // запоминаю, где я: в какой комнате и докуда ее видела - это понадобится после обрыва.
+    // по номерам же ловлю повторы (false - не показывать) и пропуски - сервер выбрасывает сообщения тем,
+    // кто не успевает читать
+    private boolean track(Message message) {
+        if (message.getType() == Message.Type.JOIN_ROOM && username.equals(message.getUsername())) {
+            if (!message.getRoom().equals(room)) {
+                room = message.getRoom();
+                lastSequence = 0;
+            }
+            // номера сверяю в пределах одного входа: после перезапуска сервера комната считает заново
+            freshStay = true;
+            ownUnseen.set(0);
+            return true;
         }
+        long sequence = message.getSequence();
+        if (message.getType() != Message.Type.TEXT || sequence == 0 || !message.getRoom().equals(room)) return true;
+
+        if (freshStay) {
+            freshStay = false;
+        } else if (sequence <= lastSequence) {
+            return false; // это я уже видела
+        } else {
+            long skipped = sequence - lastSequence - 1;
+            long own = Math.min(skipped, ownUnseen.get());
+            ownUnseen.addAndGet(-own);
+            if (skipped > own) notifyMissed(room, skipped - own);
+        }
+        lastSequence = sequence;
+        return true;
+    }
+
+    private ByteBuffer inflate(ByteBuffer frame) throws IOException {
+        if (inflater == null) {
+            inflater = new Inflater(true);
+            if (inflated == null) inflated = ByteBuffer.allocate(MAX_FRAME_LENGTH);
+        }
+        return FrameCompression.inflate(inflater, frame, inflated);
+    }
+
+    // переношу накопленное в буфер побольше (оба в режиме записи)
+    private void growInbound(int capacity) {
+        PooledBuffer bigger = pool.acquire(capacity);
+        ByteBuffer source = inbound.buffer();
+        source.flip();
+        bigger.buffer().put(source);
+        inbound.release();
+        inbound = bigger;
     }
 
     // отправка обычного текстового сообщения
     public void sendMessage(String text, String room) {
         if (!connected) return; // если не подключен - ничего не делаю
+        ownUnseen.incrementAndGet();
         sendMessageInternal(new Message(username, text, room));
     }
 
@@ -164,24 +452,143 @@ public class NetworkClient {
     private void sendMessageInternal(Message message) {
         if (!socketChannel.isOpen()) return; // если канал закрыт - выхожу
 
-        try {
-            byte[] data = message.toBytes(); // превращаю сообщение в байты
-            ByteBuffer buffer = ByteBuffer.allocate(4 + data.length); // готовлю буфер
-            buffer.putInt(data.length); // сначала пишу длину
-            buffer.put(data); // потом само сообщение
-            buffer.flip(); // готовлю к отправке
+        if (!compact) {
+            PooledBuffer pooled = pool.acquire(MessageCodec.frameLength(message)); // буфер из пула
+            MessageCodec.writeFrame(message, pooled.buffer()); // длина и сообщение прямо в буфер
+            if (pooled.buffer().position() - 4 > maxFrameLength) {
+                rejectTooLong(pooled, message);
+                return;
+            }
+            writeFrame(pooled);
+            return;
+        }
 
-            // отправляю пакетиками
-            while (buffer.hasRemaining()) {
-                socketChannel.write(buffer);
+        // v2: себя не называю (сервер знает меня по соединению), известную комнату шлю числом
+        CompactCodec.Field user = CompactCodec.Field.literal("");
+        Integer roomId = roomIds.get(message.getRoom());
+        CompactCodec.Field room = message.getType() == Message.Type.TEXT && roomId != null
+                ? CompactCodec.Field.ref(roomId)
+                : CompactCodec.Field.literal(message.getRoom());
+        ByteBuffer content = ByteBuffer.wrap(message.getContent().getBytes(StandardCharsets.UTF_8));
+
+        PooledBuffer pooled = pool.acquire(CompactCodec.frameLength(user, content, room));
+        CompactCodec.writeFrame(message.getType(), user, content, room, pooled.buffer());
+        int frameLength = pooled.buffer().position();
+        if (frameLength - CompactCodec.varintSize(frameLength) > maxFrameLength) {
+            rejectTooLong(pooled, message);
+            return;
+        }
+        if (compressAbove > 0 && content.remaining() >= compressAbove) {
+            PooledBuffer compressed = FrameCompression.deflate(pool, pooled.buffer().flip());
+            if (compressed != null) {
+                pooled.release();
+                enqueue(compressed); // уже перевернут
+                return;
             }
+            pooled.buffer().position(pooled.buffer().limit()); // не сжалось - отправлю как есть
+        }
+        writeFrame(pooled);
+    }
+
+    // сервер такое сообщение не примет и закроет соединение - не отправляю, а говорю об этом слушателю
+    private void rejectTooLong(PooledBuffer pooled, Message message) {
+        pooled.release();
+        notifyMessage(new Message(Message.Type.SYSTEM, "система", "Сообщение слишком длинное", message.getRoom()));
+    }
+
+    // кладу записанный кадр в очередь и бужу сетевой поток; сам сокет здесь не трогаю
+    private void writeFrame(PooledBuffer pooled) {
+        pooled.buffer().flip(); // готовлю к отправке
+        enqueue(pooled);
+    }
+
+    private void enqueue(PooledBuffer pooled) {
+        outbound.add(pooled);
+        if (!socketChannel.isOpen()) { // закрыли, пока я клала кадр - возвращаю в пул сама
+            releaseOutbound();
+            return;
+        }
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    // только сетевой поток: пишу очередь пачками, пока сокет берет; остальное - когда придет OP_WRITE
+    private void flushOutbound() throws IOException {
+        PooledBuffer frame;
+        while ((frame = outbound.poll()) != null) {
+            writing.add(frame);
+        }
+
+        while (!writing.isEmpty()) {
+            int count = 0;
+            for (PooledBuffer queued : writing) {
+                if (count == writeBatch.length) break;
+                writeBatch[count++] = queued.buffer();
+            }
+            socketChannel.write(writeBatch, 0, count);
+            boolean socketFull = writeBatch[count - 1].hasRemaining();
+            Arrays.fill(writeBatch, 0, count, null);
+
+            while (!writing.isEmpty() && !writing.peek().buffer().hasRemaining()) {
+                writing.poll().release(); // дописанные кадры - в пул
+            }
+            if (socketFull) break;
+        }
+
+        // OP_WRITE нужен только пока есть недописанное, иначе селектор будет будить впустую
+        key.interestOps(writing.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    // сетевой поток закончил: буферы больше не нужны
+    private void releaseBuffers() {
+        PooledBuffer frame;
+        while ((frame = writing.poll()) != null) {
+            frame.release();
+        }
+        releaseOutbound();
+        if (inbound != null) {
+            inbound.release();
+            inbound = null;
+        }
+        if (inflater != null) {
+            inflater.end(); // нативная память, GC ее не считает
+            inflater = null;
+        }
+    }
+
+    private void releaseOutbound() {
+        PooledBuffer frame;
+        while ((frame = outbound.poll()) != null) {
+            frame.release();
+        }
+    }
+
+    // соединение испорчено: закрываю сокет, цикл заметит и переподключится
+    private void dropConnection() {
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            // игнорирую ошибки при закрытии
+        }
+    }
+
+    // сетевой поток: соединение кончилось, закрываю его канал и селектор
+    private void closeConnection() {
+        try {
+            if (socketChannel != null) socketChannel.close();
+            if (selector != null) selector.close();
         } catch (IOException e) {
-            disconnect(); // при ошибке отправки - отключаюсь
+            // игнорирую ошибки при закрытии
         }
     }
 
-    // отключение от сервера
+    // отключение от сервера по желанию пользователя: больше не переподключаюсь
     public void disconnect() {
+        closed = true;
+        synchronized (reconnectLock) {
+            reconnectLock.notifyAll(); // если сетевой поток ждет паузу - пусть выходит
+        }
         try {
             // закрываю канал, если он открыт
             if (socketChannel != null && socketChannel.isOpen()) {
@@ -217,4 +624,16 @@ public class NetworkClient {
             listener.onStatusChanged(connected);
         }
     }
+
+    private void notifyMissed(String room, long count) {
+        if (listener != null) {
+            listener.onMessagesMissed(room, count);
+        }
+    }
+
+    private void notifyReconnecting(long delayMillis) {
+        if (listener != null) {
+            listener.onReconnecting(delayMillis);
+        }
+    }
 }
\ No newline at end of file
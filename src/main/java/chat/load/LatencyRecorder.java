@@ -0,0 +1,63 @@
+package chat.load;
+
+// гистограмма задержек в микросекундах: на каждую степень двойки 32 корзины,
+// так что ошибка любого перцентиля не больше 3%. один поток пишет, читают после его остановки
+final class LatencyRecorder {
+    private static final int SUB_BUCKETS = 32;
+    private static final int BUCKETS = 60 * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total = 0;
+    private long max = 0;
+
+    void record(long micros) {
+        if (micros < 0) micros = 0;
+        counts[index(micros)]++;
+        total++;
+        if (micros > max) max = micros;
+    }
+
+    void add(LatencyRecorder other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    long count() {
+        return total;
+    }
+
+    long max() {
+        return max;
+    }
+
+    // верхняя граница корзины, в которую попал перцентиль; 0, если замеров нет
+    long percentile(double fraction) {
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    // до 2*SUB_BUCKETS - точные значения, дальше шаг растет вместе со значением
+    private static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 5;
+        return shift * SUB_BUCKETS + (int) (value >> shift);
+    }
+
+    private static long upperBound(int index) {
+        if (index < 2 * SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,107 @@
+package chat.load;
+
+import chat.Message;
+import chat.MessageCodec;
+import chat.MessageView;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+// один имитируемый пользователь: свой сокет, входящий и исходящий буферы.
+// всем владеет поток LoadLoop, которому клиент достался
+final class LoadClient {
+    private static final int MAX_FRAME_LENGTH = 65536;
+
+    final String username;
+    final String room;
+    final boolean owner; // создает комнату, остальные в нее входят
+
+    SocketChannel channel;
+    SelectionKey key;
+    boolean joinSent = false;
+    boolean joined = false;
+
+    private ByteBuffer in = ByteBuffer.allocate(8192);  // режим записи, хвост недочитанного кадра
+    private ByteBuffer out = ByteBuffer.allocate(1024); // режим записи, еще не отправленное
+
+    LoadClient(String username, String room, boolean owner) {
+        this.username = username;
+        this.room = room;
+        this.owner = owner;
+    }
+
+    // что делать с каждым пришедшим сообщением; view годится только до возврата
+    interface Handler {
+        void onMessage(LoadClient client, MessageView view);
+    }
+
+    void enqueue(Message message) {
+        ensureOut(MessageCodec.frameLength(message));
+        MessageCodec.writeFrame(message, out);
+    }
+
+    // текст сырыми байтами: так генератор не тратит время на строки
+    void enqueueText(ByteBuffer content) {
+        ensureOut(MessageCodec.frameLength(username, content, room));
+        MessageCodec.writeFrame(Message.Type.TEXT, username, content, room, out);
+    }
+
+    // пишу сколько сокет возьмет, остальное дождется OP_WRITE
+    void flush() throws IOException {
+        if (out.position() == 0) return;
+        out.flip();
+        channel.write(out);
+        out.compact();
+        int ops = key.interestOps();
+        key.interestOps(out.position() > 0 ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+    }
+
+    // false - сервер закрыл соединение
+    boolean read(MessageView view, Handler handler) throws IOException {
+        if (!in.hasRemaining()) {
+            in = grow(in, in.capacity() * 2);
+        }
+        int read = channel.read(in);
+        if (read < 0) return false;
+
+        in.flip();
+        while (in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length <= 0 || length > MAX_FRAME_LENGTH) {
+                throw new IOException("Некорректная длина сообщения: " + length);
+            }
+            if (in.remaining() < 4 + length) break; // кадр пришел не целиком
+            handler.onMessage(this, view.wrap(in.slice(in.position() + 4, length)));
+            in.position(in.position() + 4 + length);
+        }
+        in.compact();
+
+        if (in.position() >= 4 && in.capacity() < 4 + in.getInt(0)) {
+            in = grow(in, 4 + in.getInt(0)); // недочитанный кадр больше буфера - расширяю под него
+        }
+        return true;
+    }
+
+    void close() {
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException e) {
+            // ничего не делаю при ошибке закрытия
+        }
+    }
+
+    private void ensureOut(int length) {
+        if (out.remaining() < length) {
+            out = grow(out, Math.max(out.capacity() * 2, out.position() + length));
+        }
+    }
+
+    // оба буфера в режиме записи: переношу записанное в буфер побольше
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
@@ -0,0 +1,321 @@
+package chat.load;
+
+import chat.server.ChatServer;
+import chat.server.ServerConfig;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// генератор нагрузки без окон: тысячи пользователей по комнатам шлют сообщения с заданной частотой,
+// в каждом сообщении - время отправки, по нему получатели считают задержку доставки.
+// mvn exec:java -Dexec.mainClass="chat.load.LoadGenerator" -Dexec.args="--embedded --clients 2000 --rate 5000"
+public class LoadGenerator {
+    // начало текста: '#', метка прогона (8 символов), плановое время отправки (19 цифр), пробел
+    static final int STAMP_LENGTH = 1 + 8 + 19 + 1;
+    private static final byte[] PADDING = "нагрузка load ".getBytes(StandardCharsets.UTF_8);
+
+    private static final String USAGE = String.join("\n",
+            "Параметры:",
+            "  --host <имя>        сервер (localhost)",
+            "  --port <порт>       порт сервера (1234)",
+            "  --clients <n>       пользователей (1000)",
+            "  --rooms <n>         комнат, пользователи делятся поровну (10)",
+            "  --rate <n>          сообщений в секунду от всех вместе (1000)",
+            "  --payload <байт>    длина текста сообщения, не меньше " + STAMP_LENGTH + " (64)",
+            "  --warmup <с>        разогрев, задержки не учитываются (5)",
+            "  --duration <с>      замер (30)",
+            "  --threads <n>       потоков генератора (число ядер, не больше 4)",
+            "  --embedded          запустить сервер в этом же процессе",
+            "  --transport <вид>   транспорт встроенного сервера: NIO или VIRTUAL_THREADS (NIO)");
+
+    private final Options options;
+    private final long epoch = System.nanoTime();
+    private final byte[] runTag; // отличает мои сообщения от истории прошлых прогонов
+    // сколько пользователей сейчас в комнате: вошедшие минус отвалившиеся. карту после запуска потоков только читаю
+    private final Map<String, AtomicInteger> roomMembers = new HashMap<>();
+    private final int owners;
+
+    private volatile long sendStart = 0;   // по clock(); 0 - еще не шлем
+    private volatile long measureFrom = Long.MAX_VALUE;
+    private volatile long measureUntil = Long.MAX_VALUE;
+    private volatile boolean sendingStopped = false;
+
+    private final AtomicInteger joined = new AtomicInteger();
+    private final AtomicInteger ownersJoined = new AtomicInteger();
+    private final AtomicInteger ownersFailed = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sentMeasured = new LongAdder();
+    private final LongAdder received = new LongAdder();
+
+    LoadGenerator(Options options) {
+        this.options = options;
+        this.owners = Math.min(options.rooms, options.clients);
+        String tag = Long.toString(ThreadLocalRandom.current().nextLong(36L * 36 * 36 * 36 * 36 * 36 * 36 * 36), 36);
+        this.runTag = String.format("%8s", tag).replace(' ', '0').getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        ChatServer server = options.embedded ? startEmbedded(options) : null;
+        try {
+            new LoadGenerator(options).run();
+        } finally {
+            if (server != null) server.stop();
+        }
+    }
+
+    // сервер в том же процессе, журнал не вывожу: на тысячах входов он сам станет нагрузкой
+    private static ChatServer startEmbedded(Options options) throws IOException {
+        ChatServer server = ChatServer.create(options.transport, new ServerConfig().setLogChatMessages(false));
+        server.setServerListener(message -> { });
+        server.start(options.port);
+        Thread thread = new Thread(server::runServer, "chat-server");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("Встроенный сервер " + options.transport + " на порту " + options.port);
+        return server;
+    }
+
+    void run() throws IOException, InterruptedException {
+        InetSocketAddress address = new InetSocketAddress(options.host, options.port);
+        List<LoadLoop> loops = new ArrayList<>();
+        for (int i = 0; i < options.threads; i++) {
+            loops.add(new LoadLoop(this, i, address, (double) options.rate / options.threads, options.payload));
+        }
+        String prefix = "load-" + new String(runTag, StandardCharsets.US_ASCII) + "-";
+        for (int i = 0; i < options.clients; i++) {
+            String room = prefix + "room-" + (i % options.rooms); // комнаты тоже свои: прошлый прогон мог их оставить
+            roomMembers.computeIfAbsent(room, r -> new AtomicInteger());
+            loops.get(i % loops.size()).add(new LoadClient(prefix + i, room, i < owners));
+        }
+
+        System.out.printf("Подключаю %d пользователей в %d комнат к %s, потоков: %d%n",
+                options.clients, owners, address, loops.size());
+        loops.forEach(Thread::start);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30 + options.clients / 100);
+        while (joined.get() + failures.get() < options.clients && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(1000);
+            System.out.printf("  в комнатах: %d, ошибок: %d%n", joined.get(), failures.get());
+        }
+        if (joined.get() == 0) {
+            System.err.println("Ни один пользователь не вошел в комнату");
+            stop(loops);
+            return;
+        }
+
+        long now = clock();
+        measureFrom = now + TimeUnit.SECONDS.toNanos(options.warmup);
+        measureUntil = measureFrom + TimeUnit.SECONDS.toNanos(options.duration);
+        sendStart = now; // последней: потоки видят границы замера раньше, чем начинают слать
+        System.out.printf("Шлю %d сообщений в секунду: разогрев %d с, замер %d с%n",
+                options.rate, options.warmup, options.duration);
+
+        long lastSent = 0;
+        long lastReceived = 0;
+        while (clock() < measureUntil) {
+            TimeUnit.MILLISECONDS.sleep(1000);
+            long totalSent = sent.sum();
+            long totalReceived = received.sum();
+            System.out.printf("  %s отправлено/с: %d, доставлено/с: %d%n",
+                    clock() < measureFrom ? "разогрев" : "замер   ",
+                    totalSent - lastSent, totalReceived - lastReceived);
+            lastSent = totalSent;
+            lastReceived = totalReceived;
+        }
+
+        sendingStopped = true;
+        TimeUnit.SECONDS.sleep(2); // дожидаюсь того, что еще в пути
+        stop(loops);
+        report(loops);
+    }
+
+    private void stop(List<LoadLoop> loops) throws InterruptedException {
+        for (LoadLoop loop : loops) {
+            loop.shutdown();
+        }
+        for (LoadLoop loop : loops) {
+            loop.join();
+        }
+    }
+
+    private void report(List<LoadLoop> loops) {
+        LatencyRecorder latency = new LatencyRecorder();
+        long expected = 0;
+        for (LoadLoop loop : loops) {
+            latency.add(loop.latency());
+            expected += loop.expected();
+        }
+        long messages = sentMeasured.sum();
+        long delivered = latency.count();
+
+        System.out.println();
+        System.out.printf("Пользователей в комнатах: %d из %d, ошибок: %d%n", joined.get(), options.clients, failures.get());
+        System.out.printf("За %d с замера отправлено: %d (%.0f в секунду)%n",
+                options.duration, messages, (double) messages / options.duration);
+        System.out.printf("Доставлено: %d из %d (%.2f%%), %.0f доставок в секунду%n",
+                delivered, expected, expected == 0 ? 0.0 : 100.0 * delivered / expected,
+                (double) delivered / options.duration);
+        System.out.printf("Задержка доставки, мс: p50 %.3f  p99 %.3f  p999 %.3f  max %.3f%n",
+                latency.percentile(0.50) / 1000.0, latency.percentile(0.99) / 1000.0,
+                latency.percentile(0.999) / 1000.0, latency.max() / 1000.0);
+        // одной строкой для скриптов
+        System.out.printf("RESULT clients=%d rooms=%d rate=%d payload=%d sent=%d expected=%d delivered=%d"
+                        + " p50_us=%d p99_us=%d p999_us=%d max_us=%d%n",
+                options.clients, owners, options.rate, options.payload, messages, expected, delivered,
+                latency.percentile(0.50), latency.percentile(0.99), latency.percentile(0.999), latency.max());
+    }
+
+    // ---- для потоков LoadLoop ----
+
+    long clock() {
+        return System.nanoTime() - epoch;
+    }
+
+    long sendStart() { return sendStart; }
+    boolean sendingStopped() { return sendingStopped; }
+
+    boolean isMeasured(long time) {
+        return time >= measureFrom && time < measureUntil;
+    }
+
+    boolean roomsReady() {
+        return ownersJoined.get() + ownersFailed.get() >= owners;
+    }
+
+    int roomMembers(String room) {
+        return roomMembers.get(room).get();
+    }
+
+    void joined(LoadClient client) {
+        joined.incrementAndGet();
+        roomMembers.get(client.room).incrementAndGet();
+        if (client.owner) ownersJoined.incrementAndGet();
+    }
+
+    void failed(LoadClient client, String reason) {
+        if (client.owner && !client.joined) ownersFailed.incrementAndGet();
+        if (client.joined) roomMembers.get(client.room).decrementAndGet(); // сервер ему больше ничего не доставит
+        if (failures.incrementAndGet() <= 10) {
+            System.err.println(client.username + ": " + reason);
+        }
+    }
+
+    void sent(boolean measured) {
+        sent.increment();
+        if (measured) sentMeasured.increment();
+    }
+
+    void received() {
+        received.increment();
+    }
+
+    // заполняю текст сообщения; начало потом перезаписывает stamp
+    void fillPadding(ByteBuffer content) {
+        for (int i = 0; i < content.capacity(); i++) {
+            content.put(i, PADDING[i % PADDING.length]);
+        }
+        content.put(0, (byte) '#');
+        content.put(1, runTag);
+        content.put(STAMP_LENGTH - 1, (byte) ' ');
+    }
+
+    void stamp(ByteBuffer content, long time) {
+        for (int i = STAMP_LENGTH - 2; i >= 1 + runTag.length; i--) {
+            content.put(i, (byte) ('0' + time % 10));
+            time /= 10;
+        }
+    }
+
+    // время отправки из текста; -1, если сообщение не из этого прогона
+    long readStamp(ByteBuffer content) {
+        if (content.remaining() < STAMP_LENGTH || content.get(0) != '#') return -1;
+        for (int i = 0; i < runTag.length; i++) {
+            if (content.get(1 + i) != runTag[i]) return -1;
+        }
+        long time = 0;
+        for (int i = 1 + runTag.length; i < STAMP_LENGTH - 1; i++) {
+            time = time * 10 + (content.get(i) - '0');
+        }
+        return time;
+    }
+
+    static final class Options {
+        String host = "localhost";
+        int port = 1234;
+        int clients = 1000;
+        int rooms = 10;
+        int rate = 1000;
+        int payload = 64;
+        int warmup = 5;
+        int duration = 30;
+        int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+        boolean embedded = false;
+        ChatServer.Transport transport = ChatServer.Transport.NIO;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String name = args[i];
+                if (name.equals("--embedded")) {
+                    options.embedded = true;
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Нет значения для " + name);
+                }
+                String value = args[++i];
+                switch (name) {
+                    case "--host": options.host = value; break;
+                    case "--port": options.port = number(name, value, 1); break;
+                    case "--clients": options.clients = number(name, value, 1); break;
+                    case "--rooms": options.rooms = number(name, value, 1); break;
+                    case "--rate": options.rate = number(name, value, 1); break;
+                    case "--payload": options.payload = number(name, value, STAMP_LENGTH); break;
+                    case "--warmup": options.warmup = number(name, value, 0); break;
+                    case "--duration": options.duration = number(name, value, 1); break;
+                    case "--threads": options.threads = number(name, value, 1); break;
+                    case "--transport":
+                        try {
+                            options.transport = ChatServer.Transport.valueOf(value);
+                        } catch (IllegalArgumentException e) {
+                            throw new IllegalArgumentException("Неизвестный транспорт: " + value);
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Неизвестный параметр: " + name);
+                }
+            }
+            return options;
+        }
+
+        private static int number(String name, String value, int min) {
+            try {
+                int number = Integer.parseInt(value);
+                if (number >= min) return number;
+            } catch (NumberFormatException e) {
+                // ниже то же сообщение
+            }
+            throw new IllegalArgumentException(name + ": нужно целое число не меньше " + min);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package chat.load;
+
+import chat.Message;
+import chat.MessageView;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// поток генератора: свой селектор и своя доля клиентов. подключает их, заводит в комнаты,
+// отправляет сообщения по расписанию и меряет задержку того, что пришло. общего состояния с другими потоками
+// почти нет: счетчики в LoadGenerator и гистограмма, которую читают после остановки
+final class LoadLoop extends Thread {
+    private static final int MAX_CONNECTING = 64;  // столько подключений одновременно в процессе
+    private static final int MAX_SENDS_PER_PASS = 1000; // отстав от расписания, догоняю пачками, не замирая
+
+    private final LoadGenerator run;
+    private final InetSocketAddress address;
+    private final Selector selector;
+    private final List<LoadClient> clients = new ArrayList<>();
+    private final List<LoadClient> joined = new ArrayList<>(); // кому уже можно слать
+    private final MessageView view = new MessageView();
+    private final LoadClient.Handler handler = this::onMessage;
+    private final LatencyRecorder latency = new LatencyRecorder();
+    private final long intervalNanos; // расписание этого потока: одно сообщение в intervalNanos
+
+    private int nextToConnect = 0;
+    private int connecting = 0;
+    private boolean joinsSent = false;
+    private long nextSend = 0;   // по часам run.clock(); 0 - отправка еще не началась
+    private int cursor = 0;      // по кругу выбираю, кто отправляет
+    private long expected = 0;   // сколько доставок должно прийти за время замера
+    private final ByteBuffer content;
+
+    private volatile boolean running = true;
+
+    LoadLoop(LoadGenerator run, int id, InetSocketAddress address, double ratePerSecond, int payloadSize)
+            throws IOException {
+        super("load-loop-" + id);
+        this.run = run;
+        this.address = address;
+        this.selector = Selector.open();
+        this.intervalNanos = ratePerSecond > 0 ? (long) (1_000_000_000L / ratePerSecond) : Long.MAX_VALUE;
+        this.content = ByteBuffer.allocate(Math.max(payloadSize, LoadGenerator.STAMP_LENGTH));
+        run.fillPadding(content);
+    }
+
+    void add(LoadClient client) {
+        clients.add(client);
+    }
+
+    LatencyRecorder latency() { return latency; }
+    long expected() { return expected; }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                connectMore();
+                selector.select(selectTimeout());
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handleKey(key);
+                }
+                sendJoins();
+                sendDue();
+            }
+        } catch (IOException e) {
+            System.err.println(getName() + ": " + e.getMessage());
+        } finally {
+            for (LoadClient client : clients) {
+                client.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // ничего не делаю при ошибке закрытия
+            }
+        }
+    }
+
+    // подключаю понемногу, чтобы не переполнить очередь accept у сервера
+    private void connectMore() throws IOException {
+        while (connecting < MAX_CONNECTING && nextToConnect < clients.size()) {
+            LoadClient client = clients.get(nextToConnect++);
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            client.channel = channel;
+            client.key = channel.register(selector, SelectionKey.OP_CONNECT, client);
+            channel.connect(address);
+            connecting++;
+        }
+    }
+
+    private long selectTimeout() {
+        if (nextSend == 0 && run.sendStart() == 0) return 10;
+        long wait = (nextSend - run.clock()) / 1_000_000;
+        return Math.max(1, Math.min(wait, 10));
+    }
+
+    private void handleKey(SelectionKey key) {
+        LoadClient client = (LoadClient) key.attachment();
+        boolean connect = key.isConnectable();
+        try {
+            if (connect) {
+                connecting--;
+                client.channel.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+                client.enqueue(new Message(client.username, "", "")); // регистрация
+                if (client.owner) {
+                    client.enqueue(new Message(Message.Type.CREATE_ROOM, client.username, client.room));
+                    client.joinSent = true;
+                }
+                client.flush();
+                return;
+            }
+            if (key.isReadable() && !client.read(view, handler)) {
+                fail(client, "сервер закрыл соединение");
+                return;
+            }
+            if (key.isValid() && key.isWritable()) {
+                client.flush();
+            }
+        } catch (IOException e) {
+            if (connect) connecting--;
+            fail(client, e.getMessage());
+        }
+    }
+
+    private void fail(LoadClient client, String reason) {
+        run.failed(client, reason);
+        client.key.cancel();
+        client.close();
+        joined.remove(client);
+    }
+
+    // остальные входят в комнаты, когда все владельцы свои создали
+    private void sendJoins() throws IOException {
+        if (joinsSent || !run.roomsReady()) return;
+        boolean all = true;
+        for (LoadClient client : clients) {
+            if (client.joinSent) continue;
+            if (client.channel != null && client.channel.isConnected()) {
+                client.enqueue(new Message(Message.Type.JOIN_ROOM, client.username, client.room));
+                client.joinSent = true;
+                client.flush();
+            } else if (client.channel == null || client.channel.isOpen()) {
+                all = false; // еще подключается
+            }
+        }
+        joinsSent = all;
+    }
+
+    // отправляю все, что положено по расписанию к этому моменту. метка времени - плановая, а не фактическая:
+    // если генератор или сервер отстал, ожидание в очереди попадет в задержку, а не спрячется
+    private void sendDue() {
+        long start = run.sendStart();
+        if (start == 0 || joined.isEmpty() || run.sendingStopped()) return;
+        if (nextSend == 0) nextSend = start;
+
+        long now = run.clock();
+        int sent = 0;
+        while (nextSend <= now && sent < MAX_SENDS_PER_PASS) {
+            cursor %= joined.size();
+            LoadClient client = joined.get(cursor++);
+            run.stamp(content, nextSend);
+            client.enqueueText(content);
+            try {
+                client.flush();
+            } catch (IOException e) {
+                // кадр не ушёл: не жду на него ответов, но слот расписания пропускаю
+                fail(client, e.getMessage());
+                if (joined.isEmpty()) return;
+                nextSend += intervalNanos;
+                sent++;
+                continue;
+            }
+            boolean measured = run.isMeasured(nextSend);
+            if (measured) {
+                expected += run.roomMembers(client.room) - 1; // сервер не возвращает сообщение автору
+            }
+            run.sent(measured);
+            nextSend += intervalNanos;
+            sent++;
+        }
+    }
+
+    private void onMessage(LoadClient client, MessageView message) {
+        switch (message.getType()) {
+            case TEXT:
+                long sentAt = run.readStamp(message.contentBytes());
+                if (sentAt < 0) break; // не мое: чужой клиент или история прошлого прогона
+                run.received();
+                if (run.isMeasured(sentAt)) {
+                    latency.record((run.clock() - sentAt) / 1000);
+                }
+                break;
+            case JOIN_ROOM:
+                if (!client.joined && client.username.equals(message.getUsername())) {
+                    client.joined = true;
+                    joined.add(client);
+                    run.joined(client);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+}
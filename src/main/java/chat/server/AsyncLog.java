@@ -0,0 +1,207 @@
+package chat.server;
+
+import chat.MessageView;
+import chat.PooledBuffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// журнал сервера: горячий путь только кладет запись в кольцо без замков (номер слота берет через CAS),
+// строки собирает и отдает слушателю пачками отдельный поток.
+// кольцо закрыто, пока потока нет: старший бит tail. закрываю тем же CAS, которым производители берут слот,
+// поэтому запись либо взяла слот до закрытия (и поток ее дождется), либо увидела закрытие и ушла мимо кольца
+final class AsyncLog {
+    private static final int MAX_BATCH = 256; // строк за один вызов слушателя
+    private static final long IDLE_PARK_NANOS = 5_000_000; // пусто - сплю 5мс
+    private static final long CLOSED = Long.MIN_VALUE; // бит в tail: новых записей кольцо не принимает
+    private static final int FULL_SPINS = 100;            // BLOCK: столько раз кручусь у полного кольца,
+    private static final long FULL_PARK_NANOS = 50_000;  // потом сплю между попытками
+
+    // слот кольца; поля пишет производитель до публикации номера, читает потребитель после
+    private static final class Entry {
+        String text;       // готовая строка или null
+        String room;       // сообщение чата: комната, автор и кадр v1 с текстом
+        String user;
+        PooledBuffer frame;
+    }
+
+    private final Entry[] entries;
+    private final AtomicLongArray sequences; // sequences[i] == n: слот свободен для записи номер n; n + 1 - запись n готова
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(CLOSED); // следующий номер для производителей (+ CLOSED)
+    private long head = 0; // следующий номер для потребителя (только его поток)
+    private final ServerConfig.LogOverflowPolicy overflowPolicy;
+    private final LongAdder dropped = new LongAdder(); // не влезли в кольцо
+
+    private final MessageView view = new MessageView(); // только поток потребителя
+    private volatile ChatServer.ServerListener listener;
+    private volatile boolean stopping = false; // потоку журнала пора дочистить кольцо и выйти
+    private Thread consumer;
+
+    AsyncLog(int capacity, ServerConfig.LogOverflowPolicy overflowPolicy) {
+        this.entries = new Entry[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        this.overflowPolicy = overflowPolicy;
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = new Entry();
+            sequences.set(i, i);
+        }
+    }
+
+    void setListener(ChatServer.ServerListener listener) {
+        this.listener = listener;
+    }
+
+    void start() {
+        stopping = false;
+        tail.set(tail.get() & ~CLOSED); // кольцо пустое: прошлый поток дочистил его до конца
+        consumer = new Thread(this::consume, "chat-log");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    // дожидаюсь, пока поток отдаст все, что уже в кольце
+    void stop() {
+        stopping = true;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // готовая строка; пока поток не запущен (или уже остановлен) - отдаю сразу.
+    // пока поток дочищает кольцо, такая строка может обогнать записи, положенные до остановки
+    void log(String text) {
+        if (!publish(text, null, null, null)) {
+            deliver(List.of(text));
+        }
+    }
+
+    // сообщение чата: строку соберу в фоне, кадр держу до тех пор.
+    // без потока журнала чат не пишу, сообщения и так видны клиентам
+    void chat(String room, String user, PooledBuffer frame) {
+        publish(null, room, user, frame.retain());
+    }
+
+    // false - кольцо закрыто, запись не принята; кадр в этом случае (и если запись выброшена) отпускаю сама
+    private boolean publish(String text, String room, String user, PooledBuffer frame) {
+        long sequence;
+        int spins = 0;
+        while (true) {
+            sequence = tail.get();
+            if ((sequence & CLOSED) != 0) {
+                if (frame != null) frame.release();
+                return false;
+            }
+            long expected = sequences.get((int) (sequence & mask));
+            if (expected == sequence) {
+                if (tail.compareAndSet(sequence, sequence + 1)) break; // слот мой
+            } else if (expected < sequence) { // кольцо полно: потребитель еще не освободил этот слот
+                if (overflowPolicy == ServerConfig.LogOverflowPolicy.DROP_NEW) {
+                    dropped.increment();
+                    if (frame != null) frame.release();
+                    return true;
+                }
+                // BLOCK: жду потребителя; если он выходит, следующий круг увидит закрытое кольцо
+                if (++spins < FULL_SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(FULL_PARK_NANOS);
+                }
+            }
+            // иначе слот уже забрал другой производитель - беру следующий номер
+        }
+
+        int index = (int) (sequence & mask);
+        Entry entry = entries[index];
+        entry.text = text;
+        entry.room = room;
+        entry.user = user;
+        entry.frame = frame;
+        sequences.set(index, sequence + 1); // публикую: потребитель увидит поля вместе с номером
+        return true;
+    }
+
+    private void consume() {
+        List<String> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            drainTo(batch);
+            if (batch.isEmpty()) {
+                if (stopping) break;
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            deliver(batch);
+            batch.clear();
+        }
+        // закрываю кольцо: дальше записи идут мимо него. слоты, взятые до закрытия, производители
+        // допишут без ожиданий - дочищаю их все, сколько бы их ни было
+        long end;
+        do {
+            end = tail.get();
+        } while (!tail.compareAndSet(end, end | CLOSED));
+        while (true) {
+            drainTo(batch);
+            if (!batch.isEmpty()) {
+                deliver(batch);
+                batch.clear();
+            } else if (head == end) {
+                break;
+            } else {
+                Thread.onSpinWait(); // слот взят, запись еще не опубликована
+            }
+        }
+    }
+
+    // забираю из кольца до MAX_BATCH записей и собираю строки
+    private void drainTo(List<String> batch) {
+        long lost = dropped.sumThenReset();
+        if (lost > 0) {
+            batch.add("Журнал не успевает: пропущено записей - " + lost);
+        }
+        while (batch.size() < MAX_BATCH) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) break; // следующая запись еще не готова
+            Entry entry = entries[index];
+            batch.add(entry.text != null ? entry.text : formatChat(entry));
+            entry.text = null;
+            entry.room = null;
+            entry.user = null;
+            entry.frame = null;
+            sequences.set(index, head + entries.length); // слот свободен для круга дальше
+            head++;
+        }
+    }
+
+    private String formatChat(Entry entry) {
+        try {
+            ByteBuffer frame = entry.frame.buffer();
+            String content = view.wrap(frame.slice(frame.position() + 4, frame.remaining() - 4)).getContent();
+            return "[" + entry.room + "] " + entry.user + ": " + content;
+        } catch (Exception e) {
+            return "[" + entry.room + "] " + entry.user + ": ?";
+        } finally {
+            entry.frame.release();
+        }
+    }
+
+    private void deliver(List<String> messages) {
+        ChatServer.ServerListener listener = this.listener;
+        try {
+            if (listener != null) {
+                listener.onLogBatch(messages);
+            } else {
+                messages.forEach(System.out::println);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Ошибка слушателя журнала: " + e.getMessage()); // поток журнала не роняю
+        }
+    }
+}
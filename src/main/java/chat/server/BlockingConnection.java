@@ -0,0 +1,156 @@
+package chat.server;
+
+import chat.PooledBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// клиент в режиме "виртуальный поток на соединение".
+// отправитель только кладет кадр в очередь, в блокирующий сокет пишет отдельный виртуальный поток:
+// клиент, который перестал читать, не останавливает рассылку всей комнаты
+class BlockingConnection extends Session {
+    private final SocketChannel channel;
+    private final FrameDecoder decoder = new FrameDecoder(protocol()); // входящие данные
+    private final Queue<OutboundFrame> outbound = new ConcurrentLinkedQueue<>(); // еще не начатые кадры
+    private final AtomicLong outboundBytes = new AtomicLong(); // сколько байт ждут отправки, включая пишущиеся
+    private final AtomicBoolean writing = new AtomicBoolean(); // поток записи уже работает
+    private volatile boolean evicting; // дописываю очередь и закрываю
+    private final int maxWriteBatch;
+    private final ServerMetrics metrics;
+
+    BlockingConnection(SocketChannel channel, int maxWriteBatch, ServerMetrics metrics) {
+        this.channel = channel;
+        this.maxWriteBatch = maxWriteBatch;
+        this.metrics = metrics;
+    }
+
+    SocketChannel channel() { return channel; }
+    FrameDecoder decoder() { return decoder; }
+
+    @Override
+    void send(PooledBuffer frame, boolean droppable) {
+        if (!channel.isOpen()) return;
+        OutboundFrame queued = new OutboundFrame(frame, droppable);
+        outboundBytes.addAndGet(queued.length);
+        outbound.add(queued);
+        if (!channel.isOpen()) { // закрыли, пока я клала кадр - возвращаю его в пул сама
+            releaseOutbound();
+            return;
+        }
+        if (writing.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("chat-writer").start(this::writeLoop);
+        }
+    }
+
+    @Override
+    long pendingBytes() {
+        return outboundBytes.get();
+    }
+
+    // в очереди только не начатые кадры: начатые поток записи уже забрал
+    @Override
+    void dropOldest(long target) {
+        int dropped = 0;
+        for (OutboundFrame frame : outbound) {
+            if (outboundBytes.get() <= target) break;
+            if (frame.droppable && outbound.remove(frame)) { // remove не отдаст кадр, который уже забрал писатель
+                outboundBytes.addAndGet(-frame.length);
+                frame.owner.release();
+                dropped++;
+            }
+        }
+        metrics.framesDropped(dropped);
+    }
+
+    @Override
+    void evict() {
+        // поток записи может висеть на забитом сокете, поэтому закрываю по таймеру, даже если он не дописал
+        dropOldest(0);
+        evicting = true;
+        if (writing.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("chat-writer").start(this::writeLoop);
+        }
+        Thread.ofVirtual().name("chat-evict").start(() -> {
+            try {
+                Thread.sleep(EVICT_GRACE_MILLIS);
+            } catch (InterruptedException e) {
+                // все равно закрываю
+            }
+            close();
+        });
+    }
+
+    // пишу очередь пачками через write(ByteBuffer[]), пока она не опустеет
+    private void writeLoop() {
+        ByteBuffer[] batch = new ByteBuffer[maxWriteBatch];
+        OutboundFrame[] frames = new OutboundFrame[maxWriteBatch];
+        while (true) {
+            int count = 0;
+            OutboundFrame frame;
+            while (count < frames.length && (frame = outbound.poll()) != null) {
+                frames[count] = frame;
+                batch[count++] = frame.data;
+            }
+
+            if (count == 0) {
+                if (evicting) { // все дописала - дальше ждать нечего
+                    close();
+                    writing.set(false);
+                    return;
+                }
+                writing.set(false);
+                // кадр мог прийти, пока я сдавалась; тогда продолжаю сама, если никто не успел раньше
+                if (outbound.isEmpty() || !writing.compareAndSet(false, true)) return;
+                continue;
+            }
+
+            try {
+                while (batch[count - 1].hasRemaining()) {
+                    channel.write(batch, 0, count); // блокирует только этот виртуальный поток
+                }
+                long bytes = 0;
+                for (int i = 0; i < count; i++) {
+                    bytes += frames[i].length;
+                }
+                metrics.framesOut(count, bytes);
+            } catch (IOException e) {
+                close(); // читающий поток увидит закрытый канал и выведет клиента из чата
+            } finally {
+                for (int i = 0; i < count; i++) {
+                    outboundBytes.addAndGet(-frames[i].length);
+                    frames[i].owner.release();
+                }
+                Arrays.fill(batch, 0, count, null);
+                Arrays.fill(frames, 0, count, null);
+            }
+
+            if (!channel.isOpen()) {
+                releaseOutbound();
+                writing.set(false);
+                return;
+            }
+        }
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ничего не делаю при ошибке закрытия
+        }
+        releaseOutbound(); // неотправленное больше не нужно
+    }
+
+    private void releaseOutbound() {
+        OutboundFrame frame;
+        while ((frame = outbound.poll()) != null) {
+            outboundBytes.addAndGet(-frame.length);
+            frame.owner.release();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package chat.server;
+
+import chat.BufferPool;
+import chat.CompactCodec;
+import chat.FrameCompression;
+import chat.Message;
+import chat.MessageCodec;
+import chat.PooledBuffer;
+import java.nio.ByteBuffer;
+
+// кадры одной рассылки во всех форматах: каждый кодирую (и сжимаю) один раз на всю комнату
+// и только если он кому-то понадобился
+final class BroadcastFrames {
+    private final BufferPool pool;
+    private final Message.Type type;
+    private final String username;
+    private final int userId;   // 0 - имя без id (например, "система")
+    private final ByteBuffer content; // текст в UTF-8
+    private final String room;
+    private final int roomId;   // все в комнате уже знают его id
+    private final long sequence; // номер сообщения в комнате, 0 - без метки (системные)
+    private final long timestamp; // когда сервер принял сообщение
+    private final boolean deflatable; // текст достаточно длинный, чтобы сжимать его тем, кто умеет
+
+    private PooledBuffer v1;            // старый формат
+    private PooledBuffer compactRef;    // v2, имя ссылкой на id
+    private PooledBuffer compactDefine; // v2, имя вместе с id - для тех, кто видит автора впервые
+    private PooledBuffer deflatedRef;    // они же сжатые; если сжатие не выиграло - ссылка на несжатый
+    private PooledBuffer deflatedDefine;
+
+    BroadcastFrames(BufferPool pool, Message.Type type, String username, int userId,
+                    ByteBuffer content, String room, int roomId,
+                    long sequence, long timestamp, int compressionThreshold) {
+        this.pool = pool;
+        this.type = type;
+        this.username = username;
+        this.userId = userId;
+        this.content = content;
+        this.room = room;
+        this.roomId = roomId;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.deflatable = compressionThreshold > 0 && content.remaining() >= compressionThreshold;
+    }
+
+    // кадр в формате клиента; null - клиент такой длинный кадр не примет (сам сказал в HELLO)
+    PooledBuffer frameFor(Session client) {
+        ProtocolState protocol = client.protocol();
+        if (!protocol.isCompact()) {
+            return fits(v1Frame(), protocol);
+        }
+        boolean deflate = deflatable && protocol.acceptsDeflate();
+        if (userId > 0 && !protocol.knowsUser(userId)) {
+            // id считаю выданным, только если кадр с ним дойдет: иначе следующие ссылки клиент не поймет
+            if (compactDefine == null) compactDefine = encodeCompact(CompactCodec.Field.define(userId, username));
+            PooledBuffer define = compactDefine;
+            if (deflate) {
+                if (deflatedDefine == null) deflatedDefine = deflate(compactDefine);
+                define = deflatedDefine;
+            }
+            if (fits(define, protocol) == null) return null;
+            if (protocol.learnUser(userId)) return define;
+        }
+        if (compactRef == null) {
+            compactRef = encodeCompact(userId > 0 ? CompactCodec.Field.ref(userId) : CompactCodec.Field.literal(username));
+        }
+        if (!deflate) return fits(compactRef, protocol);
+        if (deflatedRef == null) deflatedRef = deflate(compactRef);
+        return fits(deflatedRef, protocol);
+    }
+
+    // сравниваю вместе с длиной кадра - запас в несколько байт не мешает
+    private static PooledBuffer fits(PooledBuffer frame, ProtocolState protocol) {
+        return frame.buffer().remaining() <= protocol.maxFrameLength() ? frame : null;
+    }
+
+    // кадр с новым id выбрасывать нельзя: без него клиент не поймет следующие ссылки на этого автора
+    boolean isDroppable(PooledBuffer frame) {
+        return frame != compactDefine && frame != deflatedDefine;
+    }
+
+    // кадр старого формата - его же храню в истории комнаты
+    PooledBuffer v1Frame() {
+        if (v1 == null) v1 = encodeV1();
+        return v1;
+    }
+
+    // отпускаю свои ссылки; очереди соединений держат свои
+    void release() {
+        if (v1 != null) v1.release();
+        if (compactRef != null) compactRef.release();
+        if (compactDefine != null) compactDefine.release();
+        if (deflatedRef != null) deflatedRef.release();
+        if (deflatedDefine != null) deflatedDefine.release();
+    }
+
+    // сжатый вариант кадра; случайные байты и прочее, что не сжимается, шлю как есть
+    private PooledBuffer deflate(PooledBuffer frame) {
+        PooledBuffer compressed = FrameCompression.deflate(pool, frame.buffer());
+        return compressed != null ? compressed : frame.retain();
+    }
+
+    private PooledBuffer encodeV1() {
+        PooledBuffer frame = pool.acquire(MessageCodec.frameLength(username, content, room, sequence));
+        MessageCodec.writeFrame(type, username, content, room, sequence, timestamp, frame.buffer());
+        frame.buffer().flip();
+        return frame;
+    }
+
+    private PooledBuffer encodeCompact(CompactCodec.Field user) {
+        CompactCodec.Field roomField = roomId > 0 ? CompactCodec.Field.ref(roomId) : CompactCodec.Field.literal(room);
+        PooledBuffer frame = pool.acquire(CompactCodec.frameLength(user, content, roomField, sequence));
+        CompactCodec.writeFrame(type, user, content, roomField, sequence, timestamp, frame.buffer());
+        frame.buffer().flip();
+        return frame;
+    }
+}
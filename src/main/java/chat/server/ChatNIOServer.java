@@ -1,46 +1,48 @@
 package chat.server;
 
-import chat.Message;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.util.*;
 
-public class ChatNIOServer {
+public class ChatNIOServer implements ChatServer {
+    private static final long STOP_TIMEOUT_MILLIS = 5000; // сколько жду рабочие потоки при остановке
+
     private volatile boolean running = false;
-    private Selector selector; // следит за всеми соединениями
+    private Selector selector; // акцептор: следит только за новыми подключениями
     private ServerSocketChannel serverChannel; // главный канал для приема подключений
 
-    // комнаты: имя комнаты - список кто в ней сидит
-    private final Map<String, Set<SocketChannel>> rooms = new HashMap<>();
-    // пользователи: канал связи - имя пользователя
-    private final Map<SocketChannel, String> users = new HashMap<>();
-    // текущая комната пользователя: канал - имя комнаты
-    private final Map<SocketChannel, String> currentRooms = new HashMap<>();
+    private final ServerConfig config;
+    private EventLoop[] workers;
+    private int nextWorker = 0; // по кругу раздаю подключения рабочим
+
+    private final ChatService service; // комнаты и пользователи
 
-    // слушатель для логирования - теперь только один метод для всех событий
-    private ServerListener listener;
+    public ChatNIOServer() {
+        this(new ServerConfig());
+    }
 
-    public interface ServerListener {
-        void onLogMessage(String message);
+    public ChatNIOServer(int workerCount) {
+        this(new ServerConfig().setWorkerCount(workerCount));
+    }
+
+    public ChatNIOServer(ServerConfig config) {
+        this.config = config;
+        this.service = new ChatService(config);
     }
 
     // устанавливаем слушателя
+    @Override
     public void setServerListener(ServerListener listener) {
-        this.listener = listener;
+        service.setServerListener(listener);
     }
 
-    // метод для логирования - используем везде вместо System.out
     private void log(String message) {
-        if (listener != null) {
-            listener.onLogMessage(message);
-        } else {
-            System.out.println(message);
-        }
+        service.log(message);
     }
 
     // подготавливаем сервер к работе
+    @Override
     public void start(int port) throws IOException {
         if (running) {
             throw new IllegalStateException("сервер уже запущен");
@@ -51,41 +53,53 @@ public class ChatNIOServer {
         serverChannel.configureBlocking(false); // делаю неблокирующей
         serverChannel.bind(new InetSocketAddress(port)); // привязываю к порту
         serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        service.open();
+        service.metrics().register("ChatNIOServer", port); // счетчики видно в jconsole
+
+        int workerCount = config.getWorkerCount(); // сколько рабочих потоков читают и пишут клиентов
+        workers = new EventLoop[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new EventLoop(service, config, "chat-worker-" + i);
+            workers[i].start();
+        }
+
         running = true;
-        log("Сервер запущен на порту " + port);
+        log("Сервер запущен на порту " + port + " (рабочих потоков: " + workerCount + ")");
     }
 
-    // главный цикл работы сервера
+    // главный цикл акцептора: принимаю подключения и отдаю их рабочим
+    @Override
     public void runServer() {
         log("Сервер начал работу");
 
-        while (running) { // пока флажок "работаю" поднят
-            try {
-                int ready = selector.select(100); // проверяю: есть ли новые события? жду 100мс
-                if (ready == 0) continue;
-
-                Set<SelectionKey> keys = selector.selectedKeys(); // получаю список событий
-                Iterator<SelectionKey> it = keys.iterator();
+        try {
+            while (running) { // пока флажок "работаю" поднят
+                try {
+                    int ready = selector.select(100); // проверяю: есть ли новые события? жду 100мс
+                    if (ready == 0) continue;
 
-                while (it.hasNext()) {
-                    SelectionKey key = it.next();
-                    it.remove(); // убираю обработанное событие
+                    Set<SelectionKey> keys = selector.selectedKeys(); // получаю список событий
+                    Iterator<SelectionKey> it = keys.iterator();
 
-                    if (!key.isValid()) continue; // если ключ неактивен - пропускаю
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove(); // убираю обработанное событие
 
-                    try {
-                        if (key.isAcceptable()) {
+                        if (key.isValid() && key.isAcceptable()) {
                             handleAccept(key); // пришел новый гость
-                        } else if (key.isReadable()) {
-                            handleRead(key); // кто-то прислал сообщение
                         }
-                    } catch (IOException e) {
-                        log("Ошибка обработки соединения: " + e.getMessage());
-                        closeClient(key); // закрываю проблемное соединение
                     }
+                } catch (IOException e) {
+                    log("Ошибка селектора: " + e.getMessage());
                 }
+            }
+        } catch (ClosedSelectorException e) {
+            // сервер остановили, пока я ждала событий
+        } finally {
+            try {
+                selector.close(); // закрываю наблюдателя
             } catch (IOException e) {
-                log("Ошибка селектора: " + e.getMessage());
+                log("Ошибка закрытия: " + e.getMessage());
             }
         }
 
@@ -100,271 +114,53 @@ public class ChatNIOServer {
         if (clientChannel == null) return; // если никто не пришел - выхожу
 
         clientChannel.configureBlocking(false); // делаю клиентский канал неблокирующим
-        clientChannel.register(selector, SelectionKey.OP_READ);
         log("Новое подключение от " + clientChannel.getRemoteAddress());
-    }
 
-    // чтение сообщения от клиента
-    private void handleRead(SelectionKey key) throws IOException {
-        SocketChannel channel = (SocketChannel) key.channel(); // беру канал клиента
-        ByteBuffer buffer = ByteBuffer.allocate(4096); // готовлю коробку для данных
-
-        int bytesRead = channel.read(buffer); // читаю что прислал клиент
-        if (bytesRead == -1) { // если -1, значит клиент отключился
-            String username = users.get(channel);
-            if (username != null) {
-                log(username + " отключился");
-                leaveRoom(channel, username); // удаляю из комнаты
-            }
-            closeClient(key); // закрываю соединение
-            return;
-        }
-
-        if (bytesRead > 0) { // если что-то прочитала
-            buffer.flip(); // переворачиваю буфер для чтения
-            processMessage(channel, buffer); // обрабатываю сообщение
-        }
-    }
-
-    // разбор полученного сообщения
-    private void processMessage(SocketChannel channel, ByteBuffer buffer) {
-        try {
-            // сначала читаю длину сообщения (4 байта)
-            if (buffer.remaining() < 4) return; // если данных мало - жду еще
-            int length = buffer.getInt(); // читаю сколько байт в сообщении
-
-            if (length <= 0 || length > 65536) { // проверяю чтобы длина была нормальная
-                log("Некорректная длина сообщения");
-                return;
-            }
-
-            // проверяю, все ли данные пришли
-            if (buffer.remaining() < length) return; // если не все - жду следующую порцию
-
-            byte[] data = new byte[length]; // создаю массив под сообщение
-            buffer.get(data); // копирую данные
-
-            Message message = new Message(data); // создаю объект сообщения
-            handleMessage(channel, message); // обрабатываю по типу
-
-        } catch (Exception e) {
-            log("Ошибка обработки сообщения: " + e.getMessage());
-        }
-    }
-
-    // обработка сообщения по типу
-    private void handleMessage(SocketChannel channel, Message message) throws IOException {
-        String username = users.get(channel); // смотрю, есть ли такой пользователь
-
-        // если пользователь еще не зарегистрирован
-        if (username == null) {
-            username = message.getUsername(); // беру имя из сообщения
-            if (username == null || username.trim().isEmpty()) {
-                sendMessage(channel, new Message("система", "Введите имя", "")); // прошу ввести имя
-                return;
-            }
-
-            // проверяю, не занято ли имя
-            if (users.containsValue(username)) {
-                sendMessage(channel, new Message("система", "Имя занято", ""));
-                return;
-            }
-
-            // регистрирую нового пользователя
-            users.put(channel, username);
-            log(username + " зарегистрировался");
-            sendMessage(channel, new Message("система", "Добро пожаловать, " + username, ""));
-            return;
-        }
-
-        // если уже зарегистрирован - смотрю тип сообщения
-        switch (message.getType()) {
-            case TEXT:
-                handleTextMessage(channel, username, message); // обычное сообщение в чат
-                break;
-            case JOIN_ROOM:
-                joinRoom(channel, username, message.getRoom()); // вход в комнату
-                break;
-            case CREATE_ROOM:
-                createRoom(channel, username, message.getRoom()); // создание комнаты
-                break;
-        }
-    }
-
-    // обработка текстового сообщения
-    private void handleTextMessage(SocketChannel channel, String username, Message message) {
-        String room = currentRooms.get(channel); // в какой комнате находится пользователь
-        if (room == null) { // если ни в какой
-            sendMessage(channel, new Message("система", "Сначала войдите в комнату", ""));
-            return;
-        }
-
-        String text = message.getContent(); // текст сообщения
-        if (text.trim().isEmpty()) return; // если пустое - игнорирую
-
-        // рассылаю сообщение всем в комнате
-        broadcastToRoom(room, new Message(username, text, room), channel);
-        log("[" + room + "] " + username + ": " + text);
-    }
-
-    // присоединение к комнате
-    private void joinRoom(SocketChannel channel, String username, String roomName) {
-        if (roomName == null || roomName.trim().isEmpty()) {
-            sendMessage(channel, new Message("система", "Введите имя комнаты", ""));
-            return;
-        }
-
-        // проверяю, существует ли такая комната
-        if (!rooms.containsKey(roomName)) {
-            sendMessage(channel, new Message("система", "Комната '" + roomName + "' не существует", ""));
-            return;
-        }
-
-        // если пользователь уже в какой-то комнате - выхожу из нее
-        String oldRoom = currentRooms.get(channel);
-        if (oldRoom != null) {
-            leaveRoom(channel, username, oldRoom);
-        }
-
-        // добавляю пользователя в комнату
-        rooms.get(roomName).add(channel);
-        currentRooms.put(channel, roomName);
-
-        // уведомляю пользователя и всех в комнате
-        sendMessage(channel, new Message(Message.Type.JOIN_ROOM, username, roomName));
-        broadcastToRoom(roomName, new Message(Message.Type.SYSTEM, "система", username + " присоединился", roomName), channel);
-
-        log(username + " вошел в комнату " + roomName);
-    }
-
-    // создание новой комнаты
-    private void createRoom(SocketChannel channel, String username, String roomName) {
-        if (roomName == null || roomName.trim().isEmpty()) {
-            sendMessage(channel, new Message("система", "Введите имя комнаты", ""));
-            return;
-        }
-
-        // проверяю, нет ли уже такой комнаты
-        if (rooms.containsKey(roomName)) {
-            sendMessage(channel, new Message("система", "Комната '" + roomName + "' уже существует", ""));
-            return;
-        }
-
-        // создаю новую комнату
-        rooms.put(roomName, new HashSet<>());
-        log("Создана комната: " + roomName);
-
-        // автоматически вхожу в созданную комнату
-        joinRoom(channel, username, roomName);
-    }
-
-    // выход из комнаты
-    private void leaveRoom(SocketChannel channel, String username, String roomName) {
-        Set<SocketChannel> roomClients = rooms.get(roomName); // кто в комнате
-        if (roomClients != null) {
-            roomClients.remove(channel); // убираю пользователя
-            // если комната пустая - удаляю ее
-            if (roomClients.isEmpty()) {
-                rooms.remove(roomName);
-                log("Комната " + roomName + " удалена (пустая)");
-            }
-        }
-
-        // уведомляю всех о выходе
-        broadcastToRoom(roomName, new Message(Message.Type.SYSTEM, "система", username + " отсоединился", roomName), null);
-
-        log(username + " вышел из комнаты " + roomName);
-    }
-
-    // полный выход пользователя
-    private void leaveRoom(SocketChannel channel, String username) {
-        String room = currentRooms.get(channel); // в какой комнате был
-        if (room != null) {
-            leaveRoom(channel, username, room); // выхожу из комнаты
-        }
-        currentRooms.remove(channel); // убираю из текущих комнат
-        users.remove(channel); // убираю из пользователей
-    }
-
-    // рассылка сообщения всем в комнате
-    private void broadcastToRoom(String roomName, Message message, SocketChannel exclude) {
-        Set<SocketChannel> roomClients = rooms.get(roomName); // кто в комнате
-        if (roomClients == null) return; // если комнаты нет - выхожу
-
-        for (SocketChannel client : roomClients) {
-            if (client != exclude && client.isOpen()) { // всем кроме исключения и если канал открыт
-                sendMessage(client, message); // отправляю сообщение
-            }
-        }
-    }
-
-    // отправка сообщения одному клиенту
-    private void sendMessage(SocketChannel channel, Message message) {
-        if (!channel.isOpen()) return; // если канал закрыт - ничего не делаю
-
-        try {
-            byte[] data = message.toBytes(); // превращаю сообщение в байты
-            ByteBuffer buffer = ByteBuffer.allocate(4 + data.length); // готовлю буфер
-            buffer.putInt(data.length); // сначала пишу длину
-            buffer.put(data); // потом само сообщение
-            buffer.flip(); // готовлю к отправке
-
-            // отправляю пакетиками, пока все не отправлю
-            while (buffer.hasRemaining()) {
-                channel.write(buffer);
-            }
-        } catch (IOException e) {
-            log("Ошибка отправки сообщения: " + e.getMessage());
-        }
-    }
-
-    // закрытие соединения с клиентом
-    private void closeClient(SelectionKey key) {
-        try {
-            SocketChannel channel = (SocketChannel) key.channel(); // беру канал
-            String username = users.get(channel); // имя пользователя
-
-            if (username != null) {
-                leaveRoom(channel, username); // вывожу из комнаты
-            }
-
-            key.cancel(); // отменяю ключ
-            channel.close(); // закрываю канал
-        } catch (IOException e) {
-            // ничего не делаю при ошибке закрытия
-        }
+        EventLoop worker = workers[nextWorker]; // дальше клиентом занимается рабочий поток
+        nextWorker = (nextWorker + 1) % workers.length;
+        worker.register(clientChannel);
     }
 
     // остановка всего сервера
+    @Override
     public void stop() {
         if (!running) return; // если уже не работает - выхожу
 
         log("🛑 Остановка сервера...");
         running = false; // опускаю флажок "работаю"
 
-        // закрываю все соединения
-        for (SelectionKey key : selector.keys()) {
-            if (key.isValid()) {
-                closeClient(key);
-            }
-        }
-
         try {
-            if (selector != null && selector.isOpen()) {
-                selector.close(); // закрываю наблюдателя
-            }
             if (serverChannel != null && serverChannel.isOpen()) {
                 serverChannel.close(); // закрываю главную дверь
             }
         } catch (IOException e) {
             log("❌ Ошибка закрытия: " + e.getMessage());
         }
+        selector.wakeup(); // акцептор сам закроет селектор и выйдет из цикла
 
-        // очищаю все списки
-        rooms.clear();
-        users.clear();
-        currentRooms.clear();
+        // рабочие потоки сами закроют свои соединения
+        for (EventLoop worker : workers) {
+            worker.shutdown();
+        }
+        awaitWorkers(); // пока они рассылают и закрываются, историю и журнал закрывать рано
+        service.close(); // дописываю историю
+        service.metrics().unregister();
 
         log("Сервер остановлен");
     }
-}
\ No newline at end of file
+
+    // жду рабочие потоки, но все вместе не дольше STOP_TIMEOUT_MILLIS
+    private void awaitWorkers() {
+        long deadline = System.nanoTime() + STOP_TIMEOUT_MILLIS * 1_000_000;
+        try {
+            for (EventLoop worker : workers) {
+                if (!worker.awaitTermination((deadline - System.nanoTime()) / 1_000_000)) {
+                    log("❌ Рабочий поток не остановился за " + STOP_TIMEOUT_MILLIS + " мс");
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // остановку не прерываю, но и ждать дальше не буду
+        }
+    }
+}
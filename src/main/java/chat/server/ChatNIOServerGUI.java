@@ -1,14 +1,31 @@
 package chat.server;
 
 import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultCaret;
 import java.awt.*;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChatNIOServerGUI {
-    private ChatNIOServer server;
+    private static final int MAX_LOG_LINES = 5000; // столько последних строк держу в окне
+    private static final int TRIM_SLACK = 500;     // обрезаю, когда набежит еще столько: реже и одним куском
+    private static final int LOG_REFRESH_MS = 100; // как часто переношу новые строки в окно
+    private static final Path HISTORY_DIRECTORY = Path.of("history"); // от папки, из которой запущен сервер
+
+    private ChatServer server;
+
+    // строки из потоков сервера ждут таймера, окно обновляю одной пачкой за тик
+    private final Queue<String> pendingLog = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
 
     private JFrame frame;
     private JTextArea logArea;
     private JTextField portField;
+    private JComboBox<ChatServer.Transport> transportBox;
+    private JCheckBox historyBox;
     private JButton startButton;
     private JButton stopButton;
 
@@ -38,6 +55,14 @@ public class ChatNIOServerGUI {
         portField.setFont(new Font("Arial", Font.PLAIN, 14));
         controlPanel.add(portField);
 
+        transportBox = new JComboBox<>(ChatServer.Transport.values()); // NIO или виртуальные потоки
+        controlPanel.add(transportBox);
+
+        historyBox = new JCheckBox("История"); // по умолчанию выключена: без спроса на диск не пишу
+        historyBox.setBackground(pinkLight);
+        historyBox.setToolTipText("Хранить историю комнат в папке " + HISTORY_DIRECTORY.toAbsolutePath());
+        controlPanel.add(historyBox);
+
         startButton = new JButton("🌸 Запустить");
         startButton.setBackground(pinkMedium);
         startButton.setForeground(Color.BLACK);
@@ -59,6 +84,8 @@ public class ChatNIOServerGUI {
         logArea.setEditable(false);
         logArea.setFont(new Font("Monospaced", Font.PLAIN, 12));
         logArea.setBackground(new Color(255, 250, 250));
+        // каретку двигаю сама, один раз за пачку, а не на каждую строку
+        ((DefaultCaret) logArea.getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
 
         JScrollPane scrollPane = new JScrollPane(logArea);
         scrollPane.setBorder(BorderFactory.createTitledBorder("Лог сервера"));
@@ -66,6 +93,8 @@ public class ChatNIOServerGUI {
 
         frame.add(mainPanel);
         frame.setVisible(true);
+
+        new Timer(LOG_REFRESH_MS, e -> flushLog()).start();
     }
 
     private void startServer() {
@@ -83,11 +112,19 @@ public class ChatNIOServerGUI {
             startButton.setEnabled(false);
             stopButton.setEnabled(true);
             portField.setEnabled(false);
-
-            server = new ChatNIOServer();
+            transportBox.setEnabled(false);
+            historyBox.setEnabled(false);
+
+            ServerConfig config = new ServerConfig();
+            if (historyBox.isSelected()) {
+                Path history = HISTORY_DIRECTORY.toAbsolutePath();
+                config.setHistoryDirectory(history);
+                appendLog("🌸 История комнат: " + history);
+            }
+            server = ChatServer.create((ChatServer.Transport) transportBox.getSelectedItem(), config);
 
             // устанавливаем слушателя
-            server.setServerListener(new ChatNIOServer.ServerListener() {
+            server.setServerListener(new ChatServer.ServerListener() {
                 @Override
                 public void onLogMessage(String message) {
                     appendLog(message); // все логи приходят сюда
@@ -105,6 +142,8 @@ public class ChatNIOServerGUI {
                         startButton.setEnabled(true);
                         stopButton.setEnabled(false);
                         portField.setEnabled(true);
+                        transportBox.setEnabled(true);
+                        historyBox.setEnabled(true);
                     });
                 }
             }, "ServerThread").start();
@@ -134,16 +173,47 @@ public class ChatNIOServerGUI {
         startButton.setEnabled(true);
         stopButton.setEnabled(false);
         portField.setEnabled(true);
+        transportBox.setEnabled(true);
+        historyBox.setEnabled(true);
 
         appendLog("🌸 Сервер остановлен");
     }
 
+    // можно звать из любого потока: строка подождет таймера
     private void appendLog(String message) {
-        SwingUtilities.invokeLater(() -> {
-            logArea.append(message + "\n");
-            // Автопрокрутка к новому сообщению
-            logArea.setCaretPosition(logArea.getDocument().getLength());
-        });
+        pendingLog.add(message);
+        // окно все равно покажет только последние MAX_LOG_LINES, лишнее выбрасываю сразу
+        if (pendingCount.incrementAndGet() > MAX_LOG_LINES && pendingLog.poll() != null) {
+            pendingCount.decrementAndGet();
+        }
+    }
+
+    // EDT, по таймеру: все накопившиеся строки - одним append
+    private void flushLog() {
+        if (pendingCount.get() == 0) return;
+
+        StringBuilder text = new StringBuilder();
+        String line;
+        while ((line = pendingLog.poll()) != null) {
+            pendingCount.decrementAndGet();
+            text.append(line).append('\n');
+        }
+        logArea.append(text.toString());
+
+        // строки считаю по документу: в записи журнала (сообщение чата) бывают свои переводы строк.
+        // после последнего '\n' документ видит еще одну пустую строку, ее не считаю
+        int lines = logArea.getLineCount() - 1;
+        if (lines > MAX_LOG_LINES + TRIM_SLACK) { // старые строки убираю одним remove
+            try {
+                int end = logArea.getLineStartOffset(lines - MAX_LOG_LINES);
+                logArea.getDocument().remove(0, end);
+            } catch (BadLocationException e) {
+                // смещение взято из самого документа
+            }
+        }
+
+        // Автопрокрутка к новому сообщению
+        logArea.setCaretPosition(logArea.getDocument().getLength());
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,48 @@
+package chat.server;
+
+import java.io.IOException;
+import java.util.List;
+
+// сервер чата; транспорт выбирается при запуске
+public interface ChatServer {
+
+    enum Transport {
+        NIO,            // селекторы: акцептор + рабочие потоки
+        VIRTUAL_THREADS // блокирующий ввод-вывод, виртуальный поток на клиента
+    }
+
+    interface ServerListener {
+        void onLogMessage(String message);
+
+        // записи журнала приходят пачками из потока журнала; по умолчанию - по одной
+        default void onLogBatch(List<String> messages) {
+            for (String message : messages) {
+                onLogMessage(message);
+            }
+        }
+    }
+
+    void setServerListener(ServerListener listener);
+
+    // подготавливаем сервер к работе
+    void start(int port) throws IOException;
+
+    // главный цикл, возвращается после stop()
+    void runServer();
+
+    void stop();
+
+    static ChatServer create(Transport transport) {
+        return create(transport, new ServerConfig());
+    }
+
+    static ChatServer create(Transport transport, ServerConfig config) {
+        switch (transport) {
+            case VIRTUAL_THREADS:
+                return new ChatVirtualThreadServer(config);
+            case NIO:
+            default:
+                return new ChatNIOServer(config);
+        }
+    }
+}
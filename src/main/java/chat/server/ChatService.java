@@ -0,0 +1,516 @@
+package chat.server;
+
+import chat.BufferPool;
+import chat.CompactCodec;
+import chat.FrameCompression;
+import chat.Handshake;
+import chat.Message;
+import chat.MessageCodec;
+import chat.MessageView;
+import chat.NameTable;
+import chat.PooledBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// логика чата: пользователи, комнаты и рассылка; общая для всех транспортов.
+// все про клиента (имя, комната, формат) лежит в его Session, поэтому путь сообщения в чат идет без поиска в картах
+class ChatService {
+    // комнаты: имя комнаты - комната (нужно только для входа и создания по имени)
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    // занятые имена: проверка уникальности за O(1)
+    private final Map<String, Session> usernames = new ConcurrentHashMap<>();
+    // комнаты по id - для ссылок клиентов v2
+    private final Map<Integer, Room> roomsById = new ConcurrentHashMap<>();
+    // вход/выход из комнат делаю под этим замком, рассылка идет без него
+    private final Object roomsLock = new Object();
+    // секрет клиента - комната, из которой его унес обрыв (под roomsLock): удаленную комнату
+    // поднимаю заново только ее бывшим участникам. старые записи вытесняю, вернуться успевают быстро
+    private static final int MAX_DEPARTED = 10_000;
+    private final Map<String, String> departedRooms = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_DEPARTED;
+        }
+    };
+    private final BufferPool pool = BufferPool.shared(); // прямые буферы для исходящих кадров
+    private final ServerMetrics metrics = new ServerMetrics(this); // счетчики для JMX
+
+    // id для формата v2: каждое имя клиент получает один раз, дальше только число; id не переиспользуются
+    private final AtomicInteger nextId = new AtomicInteger();
+    // клиенты v2 ссылаются на комнаты по id; свои id клиенты не выдают
+    private final NameTable names = new NameTable() {
+        @Override public String user(int id) { return ""; } // имя зарегистрированного беру из его сессии
+        @Override public String room(int id) {
+            Room room = roomsById.get(id);
+            return room != null ? room.getName() : null;
+        }
+        @Override public void defineUser(int id, String name) { }
+        @Override public void defineRoom(int id, String name) { }
+    };
+
+    private final RoomHistory history; // null - история выключена
+    private final RecentFrames recent; // последние сообщения комнат в памяти; null - вошедшим ничего не показываю
+
+    // медленные клиенты: выше верхней отметки применяю политику, ниже нижней - снова обычный клиент
+    private final long highWatermark;
+    private final long lowWatermark;
+    private final ServerConfig.SlowConsumerPolicy slowConsumerPolicy;
+    private final int compressionThreshold; // длинный текст сжимаю для клиентов, которые попросили
+    private final int capabilities; // что из Handshake.CAP_* сервер готов включить
+
+    private final AsyncLog journal; // журнал: строки собирает и отдает слушателю отдельный поток
+    private final boolean logChatMessages;
+
+    ChatService(ServerConfig config) {
+        this.journal = new AsyncLog(config.getLogBufferSize(), config.getLogOverflowPolicy());
+        this.logChatMessages = config.isLogChatMessages();
+        this.highWatermark = config.getOutboundHighWatermark();
+        this.lowWatermark = Math.min(config.getOutboundLowWatermark(), highWatermark);
+        this.slowConsumerPolicy = config.getSlowConsumerPolicy();
+        this.compressionThreshold = config.getCompressionThreshold();
+        this.capabilities = Handshake.CAP_COMPACT | (compressionThreshold > 0 ? Handshake.CAP_DEFLATE : 0);
+        this.history = config.getHistoryDirectory() != null ? new RoomHistory(config, this) : null;
+        int count = config.getHistoryReplayCount();
+        if (count > 0) {
+            // кольца в памяти - кэш перед историей на диске: выброшенную комнату подниму из файла
+            this.recent = new RecentFrames(pool, count, config.getRecentFramesBudget(),
+                    history != null ? (room, sink) -> history.replay(room, count, sink) : null);
+        } else {
+            this.recent = null;
+        }
+    }
+
+    // сервер запускается/останавливается: поток записи истории живет столько же
+    void open() {
+        journal.start();
+        if (history != null) history.start();
+    }
+
+    void close() {
+        if (history != null) history.stop();
+        if (recent != null) recent.clear();
+        journal.stop(); // дальше журнал пишет сразу, в потоке вызывающего
+    }
+
+    ServerMetrics metrics() { return metrics; }
+
+    // зарегистрированные клиенты и живые комнаты - для метрик
+    Collection<Session> sessions() { return usernames.values(); }
+    Collection<Room> rooms() { return rooms.values(); }
+
+    void setServerListener(ChatServer.ServerListener listener) {
+        journal.setListener(listener);
+    }
+
+    // метод для логирования - используем везде вместо System.out
+    void log(String message) {
+        journal.log(message);
+    }
+
+    // разбор одного полученного сообщения (вызывается потоком транспорта)
+    // view - переиспользуемый взгляд вызывающего потока, frame живет только на время вызова
+    void processMessage(Session session, MessageView view, ByteBuffer frame) {
+        metrics.frameIn(frame.remaining());
+        try {
+            MessageView message; // разбираю только заголовки, строки по требованию
+            ProtocolState protocol = session.protocol();
+            if (protocol.isCompact()) {
+                if (FrameCompression.isDeflated(frame)) {
+                    if (!protocol.acceptsDeflate()) throw new IOException("Сжатое сообщение без согласования");
+                    frame = session.inflate(frame); // дальше это обычное сообщение v2
+                }
+                message = view.wrapCompact(frame, names);
+            } else {
+                message = view.wrap(frame);
+            }
+            handleMessage(session, message); // обрабатываю по типу
+        } catch (Exception e) {
+            metrics.decodeError();
+            log("Ошибка обработки сообщения: " + e.getMessage());
+        }
+    }
+
+    // обработка сообщения по типу
+    private void handleMessage(Session session, MessageView message) throws IOException {
+        String username = session.getUsername(); // смотрю, зарегистрирован ли пользователь
+
+        // если пользователь еще не зарегистрирован
+        if (username == null) {
+            if (message.getType() == Message.Type.HELLO) {
+                handleHello(session, message); // явное знакомство, в нем же и регистрация
+                return;
+            }
+            // текст регистрации новые клиенты заполняют своим секретом для возобновления, старые оставляют пустым
+            registerUser(session, message.getUsername(), message.isContentBlank() ? null : message.getContent());
+            return;
+        }
+
+        // если уже зарегистрирован - смотрю тип сообщения
+        switch (message.getType()) {
+            case TEXT:
+                handleTextMessage(session, message); // обычное сообщение в чат
+                break;
+            case JOIN_ROOM:
+                joinRoom(session, message.getRoom(), resumePosition(message)); // вход в комнату
+                break;
+            case CREATE_ROOM:
+                createRoom(session, message.getRoom()); // создание комнаты
+                break;
+        }
+    }
+
+    // знакомство: из того, что клиент умеет, включаю то, что умею сама, и отвечаю WELCOME.
+    // ответ пишу еще старым форматом: клиент переключится, как только его прочитает
+    private void handleHello(Session session, MessageView message) throws IOException {
+        Handshake hello = Handshake.read(message);
+        Handshake welcome = new Handshake(Math.min(hello.getVersion(), Handshake.PROTOCOL_VERSION),
+                hello.getCapabilities() & capabilities, FrameDecoder.MAX_FRAME_LENGTH, compressionThreshold);
+
+        Message reply = new Message(Message.Type.WELCOME, "система", "", "");
+        PooledBuffer frame = pool.acquire(welcome.frameLength(reply));
+        welcome.writeFrame(reply, frame.buffer());
+        frame.buffer().flip();
+        session.send(frame);
+        frame.release();
+
+        ProtocolState protocol = session.protocol();
+        protocol.setMaxFrameLength(hello.getMaxFrameLength());
+        if (welcome.has(Handshake.CAP_DEFLATE)) protocol.enableDeflate();
+        if (welcome.has(Handshake.CAP_COMPACT)) protocol.switchToCompact();
+
+        registerUser(session, message.getUsername(), message.isContentBlank() ? null : message.getContent());
+    }
+
+    // регистрация нового пользователя; resumeToken - секрет клиента, null - клиент возобновляться не умеет
+    private void registerUser(Session session, String username, String resumeToken) {
+        if (username == null || username.trim().isEmpty()) {
+            sendMessage(session, new Message("система", "Введите имя", "")); // прошу ввести имя
+            return;
+        }
+
+        // занимаю имя одной операцией: проверка и вставка атомарны
+        Session holder = usernames.putIfAbsent(username, session);
+        if (holder != null && !takeOver(holder, session, username, resumeToken)) {
+            sendMessage(session, new Message("система", "Имя занято", ""));
+            return;
+        }
+
+        // регистрирую нового пользователя
+        session.register(username, nextId.incrementAndGet(), resumeToken);
+        log(username + (holder != null ? " переподключился" : " зарегистрировался"));
+        sendMessage(session, new Message("система", "Добро пожаловать, " + username, ""));
+    }
+
+    // имя занято старым соединением того же клиента: обрыв я еще не заметила, а он уже вернулся.
+    // секрет совпал - вывожу старое соединение из чата и отдаю имя новому
+    private boolean takeOver(Session holder, Session session, String username, String resumeToken) {
+        if (resumeToken == null || !resumeToken.equals(holder.getResumeToken())) return false;
+        if (!usernames.replace(username, holder, session)) return false;
+        synchronized (roomsLock) {
+            if (holder.getRoom() != null) {
+                rememberDeparture(holder);
+                leaveRoom(holder);
+            }
+        }
+        holder.evict(); // транспорт закроет сокет; disconnect для него ничего не сделает - имя уже не его
+        return true;
+    }
+
+    // обработка текстового сообщения
+    private void handleTextMessage(Session session, MessageView message) {
+        Room room = session.getRoom(); // в какой комнате находится пользователь
+        if (room == null) { // если ни в какой
+            sendMessage(session, new Message("система", "Сначала войдите в комнату", ""));
+            return;
+        }
+
+        if (message.isContentBlank()) return; // если пустое - игнорирую
+
+        synchronized (room) { // метка, запись в историю и рассылка - в одном порядке для всех, кто входит в комнату
+            // рассылаю сообщение всем в комнате: текст копирую байтами, строку не собираю.
+            // номер и время ставлю один раз здесь, все форматы и история получают одну и ту же метку
+            long sequence = room.nextSequence();
+            BroadcastFrames frames = new BroadcastFrames(pool, Message.Type.TEXT, session.getUsername(),
+                    session.getUserId(), message.contentBytes(), room.getName(), room.getId(),
+                    sequence, System.currentTimeMillis(), compressionThreshold);
+            if (history != null || recent != null || logChatMessages) {
+                PooledBuffer v1 = frames.v1Frame(); // кадр v1 нужен истории, кольцу и журналу, кодирую его один раз
+                if (history != null) history.append(room.getName(), v1);
+                if (recent != null) recent.append(room.getName(), v1, session.getUsername(), sequence);
+                if (logChatMessages) journal.chat(room.getName(), session.getUsername(), v1); // строку соберет поток журнала
+            }
+            broadcastFrames(room, frames, session);
+        }
+    }
+
+    // клиент, вернувшийся после обрыва, пишет в тексте входа номер последнего сообщения, которое он видел;
+    // -1 - обычный вход
+    private static long resumePosition(MessageView message) {
+        if (message.isContentBlank()) return -1;
+        try {
+            long position = Long.parseLong(message.getContent().trim());
+            return position >= 0 ? position : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // соединение с секретом пропало, пока клиент был в комнате: запоминаю, куда он вернется (под roomsLock)
+    private void rememberDeparture(Session session) {
+        if (session.getResumeToken() != null) {
+            departedRooms.put(session.getResumeToken(), session.getRoom().getName());
+        }
+    }
+
+    // удаленную комнату поднимаю только тому, кто в ней был: обрыв запомнила по его секрету (под roomsLock).
+    // одной истории на диске мало - по ней любой клиент с секретом поднял бы чужую удаленную комнату
+    private boolean mayReopen(Session session, String roomName) {
+        String token = session.getResumeToken();
+        return token != null && roomName.equals(departedRooms.get(token));
+    }
+
+    // присоединение к комнате; resumeAfter >= 0 - возвращение после обрыва, показываю только пропущенное
+    private void joinRoom(Session session, String roomName, long resumeAfter) {
+        if (roomName == null || roomName.trim().isEmpty()) {
+            sendMessage(session, new Message("система", "Введите имя комнаты", ""));
+            return;
+        }
+
+        String username = session.getUsername();
+        if (recent != null) {
+            boolean known;
+            synchronized (roomsLock) {
+                known = rooms.containsKey(roomName) || (resumeAfter >= 0 && mayReopen(session, roomName));
+            }
+            // историю с диска читаю до замков: холодная комната не держит ни остальные входы, ни свою рассылку
+            if (known) recent.preload(roomName);
+        }
+
+        Room room;
+        synchronized (roomsLock) {
+            // проверяю, существует ли такая комната
+            room = rooms.get(roomName);
+            if (room == null && resumeAfter >= 0 && mayReopen(session, roomName)) {
+                // пока клиента не было, комната опустела и удалилась - поднимаю ее заново
+                room = openRoom(roomName);
+                log("Комната " + roomName + " восстановлена для " + username);
+            }
+            if (room == null) {
+                sendMessage(session, new Message("система", "Комната '" + roomName + "' не существует", ""));
+                return;
+            }
+
+            // если пользователь уже в какой-то комнате - выхожу из нее
+            if (session.getRoom() != null) {
+                leaveRoom(session);
+            }
+            if (session.getResumeToken() != null) {
+                departedRooms.remove(session.getResumeToken()); // вернулся или ушел в другую комнату
+            }
+
+            // ответ ставлю в очередь раньше, чем клиент попадет в рассылки комнаты:
+            // клиент v2 должен узнать id комнаты до первого сообщения со ссылкой на него
+            sendJoined(session, room);
+
+            synchronized (room) { // пока показываю историю, новые сообщения комнаты ждут: ни пропусков, ни повторов
+                if (recent != null) {
+                    List<PooledBuffer> backfill = new ArrayList<>();
+                    recent.collect(roomName, session, resumeAfter, backfill); // готовые кадры из памяти, без кодирования
+                    int limit = session.protocol().maxFrameLength(); // в истории имена без id, выбрасывать можно
+                    backfill.removeIf(frame -> frame.buffer().remaining() > limit && dropFrame(frame));
+                    session.sendAll(backfill);
+                    backfill.forEach(PooledBuffer::release);
+                }
+                // добавляю пользователя в комнату
+                room.members().add(session);
+            }
+            session.setRoom(room);
+        }
+
+        // уведомляю всех в комнате
+        broadcastToRoom(room, new Message(Message.Type.SYSTEM, "система", username + " присоединился", roomName), session);
+
+        log(username + " вошел в комнату " + roomName);
+    }
+
+    // создание новой комнаты
+    private void createRoom(Session session, String roomName) {
+        if (roomName == null || roomName.trim().isEmpty()) {
+            sendMessage(session, new Message("система", "Введите имя комнаты", ""));
+            return;
+        }
+
+        // проверяю, нет ли уже такой комнаты, и создаю новую
+        synchronized (roomsLock) {
+            if (openRoom(roomName) == null) {
+                sendMessage(session, new Message("система", "Комната '" + roomName + "' уже существует", ""));
+                return;
+            }
+        }
+        log("Создана комната: " + roomName);
+
+        // автоматически вхожу в созданную комнату
+        joinRoom(session, roomName, -1);
+    }
+
+    // новая комната (под roomsLock); null - такая уже есть
+    private Room openRoom(String roomName) {
+        Room room = new Room(roomName, nextId.incrementAndGet());
+        if (rooms.putIfAbsent(roomName, room) != null) return null;
+        roomsById.put(room.getId(), room);
+        return room;
+    }
+
+    // выход из текущей комнаты (под roomsLock)
+    private void leaveRoom(Session session) {
+        Room room = session.getRoom(); // в какой комнате был
+        session.setRoom(null);
+        room.members().remove(session); // убираю пользователя
+        // если комната пустая - удаляю ее
+        if (room.members().isEmpty()) {
+            rooms.remove(room.getName());
+            roomsById.remove(room.getId());
+            if (history != null) history.retire(room.getName());
+            log("Комната " + room.getName() + " удалена (пустая)");
+        }
+
+        // уведомляю всех о выходе
+        String username = session.getUsername();
+        broadcastToRoom(room, new Message(Message.Type.SYSTEM, "система", username + " отсоединился", room.getName()), null);
+
+        log(username + " вышел из комнаты " + room.getName());
+    }
+
+    // полный выход пользователя (вызывается транспортом при закрытии соединения)
+    void disconnect(Session session) {
+        session.releaseInflater();
+        String username = session.getUsername();
+        if (username == null || !usernames.remove(username, session)) return; // так и не зарегистрировался
+
+        log(username + " отключился");
+        synchronized (roomsLock) {
+            if (session.getRoom() != null) {
+                rememberDeparture(session);
+                leaveRoom(session); // выхожу из комнаты
+            }
+        }
+    }
+
+    // рассылка сообщения всем в комнате
+    private void broadcastToRoom(Room room, Message message, Session exclude) {
+        ByteBuffer content = ByteBuffer.wrap(message.getContent().getBytes(StandardCharsets.UTF_8));
+        BroadcastFrames frames = new BroadcastFrames(pool, message.getType(), message.getUsername(), 0,
+                content, room.getName(), room.getId(), 0, 0, 0);
+        broadcastFrames(room, frames, exclude);
+    }
+
+    // рассылка: каждый формат сериализую один раз на всю комнату
+    private void broadcastFrames(Room room, BroadcastFrames frames, Session exclude) {
+        synchronized (room) { // не вклиниваюсь между показом истории и входом в комнату
+            long start = System.nanoTime();
+            for (Session member : room.members()) {
+                if (member != exclude) { // всем кроме исключения
+                    PooledBuffer frame = frames.frameFor(member);
+                    if (frame == null) { // клиент сам сказал, что такой длинный кадр не примет
+                        metrics.framesDropped(1);
+                        continue;
+                    }
+                    deliver(member, frame, frames.isDroppable(frame)); // байты общие, каждый берет свою ссылку
+                }
+            }
+            metrics.broadcastFanOut(System.nanoTime() - start);
+        }
+        frames.release(); // соединения, которым кадр нужен, взяли свои ссылки
+    }
+
+    // кадр рассылки одному клиенту с учетом того, успевает ли он читать
+    private void deliver(Session member, PooledBuffer frame, boolean droppable) {
+        long pending = member.pendingBytes();
+        if (member.isSlow()) {
+            if (pending <= lowWatermark) {
+                member.setSlow(false);
+                log(member.getUsername() + " снова успевает получать сообщения");
+            }
+        } else if (pending > highWatermark) {
+            member.setSlow(true);
+            log(member.getUsername() + " не успевает получать сообщения (в очереди " + pending + " байт)");
+            if (slowConsumerPolicy == ServerConfig.SlowConsumerPolicy.DISCONNECT) {
+                sendMessage(member, new Message(Message.Type.SYSTEM, "система",
+                        "Вы не успеваете получать сообщения, соединение закрыто", ""));
+                member.evict();
+                return;
+            }
+        }
+
+        if (!member.isSlow() || !droppable) {
+            member.send(frame, droppable);
+            return;
+        }
+        switch (slowConsumerPolicy) {
+            case DROP_OLDEST:
+                member.dropOldest(lowWatermark); // старое освобождаю, новое кладу
+                member.send(frame, true);
+                break;
+            case DROP_NEW: // пока не догонит, сообщения чата ему не кладу
+            case DISCONNECT: // уже отключаю
+                metrics.framesDropped(1);
+                break;
+        }
+    }
+
+    // кадр длиннее, чем клиент согласен принять: не отправляю, а считаю выброшенным
+    private boolean dropFrame(PooledBuffer frame) {
+        frame.release();
+        metrics.framesDropped(1);
+        return true;
+    }
+
+    // ответ на вход в комнату; клиенту v2 заодно сообщаю id комнаты и его собственный id
+    private void sendJoined(Session session, Room room) {
+        String username = session.getUsername();
+        if (!session.protocol().isCompact()) {
+            sendMessage(session, new Message(Message.Type.JOIN_ROOM, username, room.getName()));
+            return;
+        }
+
+        session.protocol().learnUser(session.getUserId());
+        CompactCodec.Field user = CompactCodec.Field.define(session.getUserId(), username);
+        CompactCodec.Field roomField = CompactCodec.Field.define(room.getId(), room.getName());
+        ByteBuffer noContent = ByteBuffer.allocate(0);
+        PooledBuffer frame = pool.acquire(CompactCodec.frameLength(user, noContent, roomField));
+        CompactCodec.writeFrame(Message.Type.JOIN_ROOM, user, noContent, roomField, frame.buffer());
+        frame.buffer().flip();
+        session.send(frame);
+        frame.release();
+    }
+
+    // отправка сообщения одному клиенту
+    private void sendMessage(Session session, Message message) {
+        // не пишу сразу: кладу в очередь клиента, транспорт сам решает когда писать в сокет
+        PooledBuffer frame = encodeFrame(message, session.protocol().isCompact());
+        session.send(frame);
+        frame.release();
+    }
+
+    // сообщение -> кадр в буфере из пула, в формате получателя
+    private PooledBuffer encodeFrame(Message message, boolean compact) {
+        PooledBuffer frame;
+        if (compact) {
+            frame = pool.acquire(CompactCodec.frameLength(message));
+            CompactCodec.writeFrame(message, frame.buffer());
+        } else {
+            frame = pool.acquire(MessageCodec.frameLength(message));
+            MessageCodec.writeFrame(message, frame.buffer()); // пишу прямо в буфер кадра
+        }
+        frame.buffer().flip();
+        return frame;
+    }
+}
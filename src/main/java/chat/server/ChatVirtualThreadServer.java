@@ -0,0 +1,143 @@
+package chat.server;
+
+import chat.MessageView;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// блокирующий транспорт: на каждого клиента свой виртуальный поток
+public class ChatVirtualThreadServer implements ChatServer {
+    private static final long STOP_TIMEOUT_MILLIS = 5000; // сколько жду потоки клиентов при остановке
+
+    private volatile boolean running = false;
+    private ServerSocketChannel serverChannel; // главный канал для приема подключений
+    private ExecutorService executor; // виртуальный поток на задачу
+
+    private final ServerConfig config;
+    private final ChatService service; // комнаты и пользователи
+    private final Set<BlockingConnection> connections = ConcurrentHashMap.newKeySet();
+
+    public ChatVirtualThreadServer() {
+        this(new ServerConfig());
+    }
+
+    public ChatVirtualThreadServer(ServerConfig config) {
+        this.config = config;
+        this.service = new ChatService(config);
+    }
+
+    // устанавливаем слушателя
+    @Override
+    public void setServerListener(ServerListener listener) {
+        service.setServerListener(listener);
+    }
+
+    private void log(String message) {
+        service.log(message);
+    }
+
+    // подготавливаем сервер к работе
+    @Override
+    public void start(int port) throws IOException {
+        if (running) {
+            throw new IllegalStateException("сервер уже запущен");
+        }
+
+        serverChannel = ServerSocketChannel.open(); // остается блокирующим
+        serverChannel.bind(new InetSocketAddress(port)); // привязываю к порту
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        service.open();
+        service.metrics().register("ChatVirtualThreadServer", port);
+        running = true;
+        log("Сервер запущен на порту " + port + " (виртуальные потоки)");
+    }
+
+    // принимаю подключения и каждому даю свой виртуальный поток
+    @Override
+    public void runServer() {
+        log("Сервер начал работу");
+
+        while (running) {
+            try {
+                SocketChannel clientChannel = serverChannel.accept(); // жду нового гостя
+                log("Новое подключение от " + clientChannel.getRemoteAddress());
+                executor.execute(() -> serve(clientChannel));
+            } catch (AsynchronousCloseException e) {
+                break; // главный канал закрыли в stop()
+            } catch (IOException e) {
+                log("Ошибка приема подключения: " + e.getMessage());
+            }
+        }
+
+        log("Сервер остановлен");
+    }
+
+    // читаю сообщения клиента, пока он не отключится
+    private void serve(SocketChannel channel) {
+        BlockingConnection connection = new BlockingConnection(channel, config.getMaxWriteBatch(), service.metrics());
+        connections.add(connection);
+        service.metrics().connectionOpened();
+        try {
+            FrameDecoder decoder = connection.decoder();
+            MessageView view = new MessageView(); // разборщик кадров этого потока
+            while (decoder.readFrom(channel) != -1) { // -1 - клиент отключился
+                try {
+                    decoder.drain(frame -> service.processMessage(connection, view, frame));
+                } catch (IOException e) {
+                    service.metrics().decodeError(); // поток байт испорчен
+                    throw e;
+                }
+            }
+        } catch (AsynchronousCloseException e) {
+            // соединение закрыли при отправке или остановке сервера
+        } catch (IOException e) {
+            log("Ошибка обработки соединения: " + e.getMessage());
+        } finally {
+            connections.remove(connection);
+            service.metrics().connectionClosed();
+            service.disconnect(connection);
+            connection.close();
+            connection.decoder().release(); // входящий буфер трогает только этот поток
+        }
+    }
+
+    // остановка всего сервера
+    @Override
+    public void stop() {
+        if (!running) return; // если уже не работает - выхожу
+
+        log("🛑 Остановка сервера...");
+        running = false;
+
+        try {
+            serverChannel.close(); // разблокирует accept
+        } catch (IOException e) {
+            log("❌ Ошибка закрытия: " + e.getMessage());
+        }
+
+        // закрываю все соединения, их потоки сами выведут клиентов из чата
+        for (BlockingConnection connection : connections) {
+            connection.close();
+        }
+        executor.shutdown();
+        try {
+            // потоки клиентов еще выводят их из комнат - историю и журнал закрываю после них
+            if (!executor.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                log("❌ Потоки клиентов не остановились за " + STOP_TIMEOUT_MILLIS + " мс");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // остановку не прерываю, но и ждать дальше не буду
+        }
+        service.close(); // дописываю историю
+        service.metrics().unregister();
+
+        log("Сервер остановлен");
+    }
+}
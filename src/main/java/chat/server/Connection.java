@@ -0,0 +1,184 @@
+package chat.server;
+
+import chat.PooledBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// NIO-сессия одного клиента со своими буферами, прикреплена к его SelectionKey
+class Connection extends Session {
+    private final EventLoop loop; // поток, которому принадлежит соединение
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final ServerMetrics metrics;
+    private final FrameDecoder decoder = new FrameDecoder(protocol()); // входящие данные
+    private final Queue<OutboundFrame> outbound = new ConcurrentLinkedQueue<>(); // готовые к отправке кадры
+    private final AtomicLong outboundBytes = new AtomicLong(); // сколько байт лежит в очереди
+    private final AtomicBoolean flushRequested = new AtomicBoolean(); // уже попросила свой поток об отправке
+    private final AtomicBoolean trimRequested = new AtomicBoolean();  // уже попросила свой поток почистить очередь
+    private volatile long trimTarget; // до скольких байт почистить
+    private boolean flushScheduled = false; // уже стою в очереди на отправку в этом проходе (только свой поток)
+    private volatile boolean closed = false;
+    private long evictDeadline; // когда закрыть, даже если уведомление не ушло (только свой поток)
+
+    Connection(EventLoop loop, SocketChannel channel, SelectionKey key, ServerMetrics metrics) {
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        this.metrics = metrics;
+    }
+
+    SocketChannel channel() { return channel; }
+    FrameDecoder decoder() { return decoder; }
+    long evictDeadline() { return evictDeadline; }
+    boolean isClosed() { return closed; }
+
+    // клиент уже выведен из чата: его сообщения больше не читаю, только дописываю очередь
+    void startEviction(long deadline) {
+        evictDeadline = deadline;
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    // ставлю кадр в очередь; звать можно из любого потока
+    @Override
+    void send(PooledBuffer frame, boolean droppable) {
+        if (closed) return; // соединение уже закрыто
+        OutboundFrame queued = new OutboundFrame(frame, droppable);
+        outboundBytes.addAndGet(queued.length);
+        outbound.add(queued);
+        if (closed) { // закрыли, пока я клала кадр - возвращаю его в пул сама
+            releaseOutbound();
+            return;
+        }
+
+        if (loop.inEventLoop()) {
+            scheduleFlush();
+        } else if (flushRequested.compareAndSet(false, true)) {
+            // сокет и interestOps трогаю только в своем потоке
+            loop.execute(this::requestedFlush);
+        }
+    }
+
+    @Override
+    long pendingBytes() {
+        return outboundBytes.get();
+    }
+
+    // очередь трогаю только в своем потоке: там же ее разбирает flush
+    @Override
+    void dropOldest(long target) {
+        trimTarget = target;
+        if (loop.inEventLoop()) {
+            trim();
+        } else if (trimRequested.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                trimRequested.set(false);
+                trim();
+            });
+        }
+    }
+
+    @Override
+    void evict() {
+        loop.execute(() -> loop.evict(this));
+    }
+
+    // выбрасываю старые кадры чата с головы очереди; начатый кадр не трогаю, иначе поток байт порвется
+    private void trim() {
+        long target = trimTarget;
+        int dropped = 0;
+        Iterator<OutboundFrame> it = outbound.iterator();
+        while (outboundBytes.get() > target && it.hasNext()) {
+            OutboundFrame frame = it.next();
+            if (!frame.droppable || frame.data.position() > 0) continue;
+            it.remove();
+            outboundBytes.addAndGet(-frame.length);
+            frame.owner.release();
+            dropped++;
+        }
+        metrics.framesDropped(dropped);
+    }
+
+    private void requestedFlush() {
+        flushRequested.set(false);
+        scheduleFlush();
+    }
+
+    // отправлю в конце прохода вместе со всем, что еще придет
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            loop.scheduleFlush(this);
+        }
+    }
+
+    // пишу очередь пачками через write(ByteBuffer[]) сколько сокет примет;
+    // если все отправила - больше не слежу за записью, если нет - жду OP_WRITE
+    void flush(ByteBuffer[] batch) throws IOException {
+        flushScheduled = false;
+        if (!key.isValid()) return;
+
+        while (true) {
+            int count = 0;
+            for (OutboundFrame frame : outbound) { // собираю пачку с головы очереди
+                batch[count++] = frame.data;
+                if (count == batch.length) break;
+            }
+            if (count == 0) break; // все отправила
+
+            channel.write(batch, 0, count); // один системный вызов на всю пачку
+
+            int written = 0;
+            long writtenBytes = 0;
+            while (written < count && !batch[written].hasRemaining()) {
+                OutboundFrame sent = outbound.poll();
+                outboundBytes.addAndGet(-sent.length);
+                writtenBytes += sent.length;
+                sent.owner.release(); // полностью отправленные кадры возвращаю в пул
+                written++;
+            }
+            metrics.framesOut(written, writtenBytes);
+            Arrays.fill(batch, 0, count, null); // не держу ссылки на чужие кадры
+
+            if (written < count) { // сокет забит - дождусь следующего OP_WRITE
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+
+        if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    void close() {
+        if (closed) return; // закрывают только из своего потока, так что проверки хватает
+        closed = true;
+        metrics.connectionClosed();
+        releaseOutbound(); // неотправленное больше не нужно
+        decoder.release();
+        key.cancel(); // отменяю ключ
+        try {
+            channel.close(); // закрываю канал
+        } catch (IOException e) {
+            // ничего не делаю при ошибке закрытия
+        }
+    }
+
+    private void releaseOutbound() {
+        OutboundFrame frame;
+        while ((frame = outbound.poll()) != null) {
+            outboundBytes.addAndGet(-frame.length);
+            frame.owner.release();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package chat.server;
+
+import chat.MessageView;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// рабочий поток со своим селектором: читает и пишет только свои соединения
+class EventLoop implements Runnable {
+    private final ChatService service;
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // задачи от других потоков
+    private final Queue<Connection> pendingFlush = new ArrayDeque<>(); // кому за этот проход что-то положили
+    private final List<Connection> evicting = new ArrayList<>(); // отключенные, которым дописываю уведомление
+    private final ByteBuffer[] writeBatch; // общий на поток массив для write(ByteBuffer[])
+    private final MessageView messageView = new MessageView(); // общий на поток разборщик входящих кадров
+    private final long maxFlushDelayNanos;
+    private volatile boolean running = true;
+
+    EventLoop(ChatService service, ServerConfig config, String name) throws IOException {
+        this.service = service;
+        this.writeBatch = new ByteBuffer[config.getMaxWriteBatch()];
+        this.maxFlushDelayNanos = config.getMaxFlushDelayMicros() * 1000;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    // true, если меня вызвали из моего же потока
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    // выполнить задачу в моем потоке (можно звать откуда угодно)
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup(); // бужу селектор, чтобы задача не ждала таймаута
+    }
+
+    // принимаю новое соединение от акцептора
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new Connection(this, channel, key, service.metrics())); // у каждого клиента свои буферы
+                service.metrics().connectionOpened();
+            } catch (IOException e) {
+                service.log("Ошибка регистрации соединения: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // ничего не делаю при ошибке закрытия
+                }
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                int ready = selector.select(100); // жду события, но не дольше 100мс
+                long passStart = System.nanoTime();
+                long tickStart = passStart;
+                boolean ranTasks = runTasks();
+
+                Set<SelectionKey> keys = selector.selectedKeys(); // получаю список событий
+                Iterator<SelectionKey> it = keys.iterator();
+
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove(); // убираю обработанное событие
+
+                    if (!key.isValid()) continue; // если ключ неактивен - пропускаю
+                    Connection connection = (Connection) key.attachment();
+
+                    try {
+                        if (key.isReadable()) {
+                            handleRead(connection); // кто-то прислал сообщение
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush(writeBatch); // сокет готов принять накопленные данные
+                        }
+                    } catch (IOException e) {
+                        service.log("Ошибка обработки соединения: " + e.getMessage());
+                        closeConnection(connection); // закрываю проблемное соединение
+                    }
+
+                    // длинный проход не должен задерживать уже готовые ответы
+                    if (System.nanoTime() - tickStart > maxFlushDelayNanos) {
+                        flushPending();
+                        tickStart = System.nanoTime();
+                    }
+                }
+
+                flushPending(); // все, что накопилось за проход, уходит пачками
+                closeEvicted();
+                if (ready > 0 || ranTasks) { // пустые проходы по таймауту в гистограмму не пишу
+                    service.metrics().loopIteration(System.nanoTime() - passStart);
+                }
+            } catch (IOException e) {
+                service.log("Ошибка селектора: " + e.getMessage());
+            }
+        }
+
+        closeAll();
+    }
+
+    // чтение сообщения от клиента
+    private void handleRead(Connection connection) throws IOException {
+        FrameDecoder decoder = connection.decoder(); // буфер этого клиента с остатками прошлых чтений
+
+        int bytesRead = decoder.readFrom(connection.channel()); // читаю что прислал клиент
+        if (bytesRead == -1) { // если -1, значит клиент отключился
+            closeConnection(connection);
+            return;
+        }
+
+        if (bytesRead > 0) { // если что-то прочитала
+            try {
+                decoder.drain(frame -> service.processMessage(connection, messageView, frame)); // обрабатываю все целые сообщения
+            } catch (IOException e) {
+                service.metrics().decodeError(); // поток байт испорчен
+                throw e;
+            }
+        }
+    }
+
+    // соединение получило кадры в этом проходе; отправлю их в конце прохода одной пачкой
+    void scheduleFlush(Connection connection) {
+        pendingFlush.add(connection);
+    }
+
+    private void flushPending() {
+        Connection connection;
+        while ((connection = pendingFlush.poll()) != null) {
+            try {
+                connection.flush(writeBatch);
+            } catch (IOException e) {
+                service.log("Ошибка отправки сообщения: " + e.getMessage());
+                closeConnection(connection);
+            }
+        }
+    }
+
+    // true, если было что выполнить
+    private boolean runTasks() {
+        boolean ran = false;
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+            ran = true;
+        }
+        return ran;
+    }
+
+    // клиент не успевает читать: чат выбрасываю, чтобы уведомление ушло первым, и вывожу его из чата.
+    // то, что сокет не принял сразу, дописываю по OP_WRITE, но не дольше EVICT_GRACE_MILLIS
+    void evict(Connection connection) {
+        if (connection.isClosed()) return;
+        connection.dropOldest(0);
+        try {
+            connection.flush(writeBatch);
+        } catch (IOException e) {
+            closeConnection(connection);
+            return;
+        }
+        if (connection.pendingBytes() == 0) {
+            closeConnection(connection);
+            return;
+        }
+        service.disconnect(connection);
+        connection.startEviction(System.nanoTime() + Session.EVICT_GRACE_MILLIS * 1_000_000);
+        evicting.add(connection);
+    }
+
+    // закрываю тех, кому все дописала или кого ждать уже хватит
+    private void closeEvicted() {
+        if (evicting.isEmpty()) return;
+        long now = System.nanoTime();
+        Iterator<Connection> it = evicting.iterator();
+        while (it.hasNext()) {
+            Connection connection = it.next();
+            if (connection.isClosed() || connection.pendingBytes() == 0 || now - connection.evictDeadline() >= 0) {
+                connection.close();
+                it.remove();
+            }
+        }
+    }
+
+    // вывожу клиента из чата и закрываю канал
+    private void closeConnection(Connection connection) {
+        service.disconnect(connection);
+        connection.close();
+    }
+
+    // закрываю все свои соединения при остановке
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                closeConnection((Connection) key.attachment());
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            service.log("Ошибка закрытия селектора: " + e.getMessage());
+        }
+    }
+
+    // остановка: поток сам закроет соединения и выйдет
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    // жду, пока поток выйдет, но не дольше millis; true - вышел
+    boolean awaitTermination(long millis) throws InterruptedException {
+        if (inEventLoop()) return false; // себя не дождусь
+        thread.join(Math.max(1, millis));
+        return !thread.isAlive();
+    }
+}
@@ -0,0 +1,121 @@
+package chat.server;
+
+import chat.BufferPool;
+import chat.CompactCodec;
+import chat.PooledBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+// входящий буфер одного соединения: хранит недочитанные кадры между чтениями.
+// буфер берется из пула только на время чтения: у молчащего клиента он возвращается обратно
+class FrameDecoder {
+    static final int MAX_FRAME_LENGTH = 65536; // максимальная длина сообщения
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final int MAX_CAPACITY = 4 + MAX_FRAME_LENGTH; // длина + само сообщение
+
+    private final BufferPool pool = BufferPool.shared();
+    private final ProtocolState protocol; // от него зависит, как записана длина кадра
+    private PooledBuffer pooled; // null, пока недочитанных данных нет
+    private ByteBuffer buffer;   // всегда в режиме записи
+
+    FrameDecoder(ProtocolState protocol) {
+        this.protocol = protocol;
+    }
+
+    // что делать с каждым целым кадром; кадр - окно в мой буфер, годится только до возврата из onFrame
+    interface FrameHandler {
+        void onFrame(ByteBuffer frame);
+    }
+
+    // читаю из канала в конец буфера, возвращаю то же, что channel.read
+    int readFrom(ReadableByteChannel channel) throws IOException {
+        if (pooled == null) {
+            pooled = pool.acquire(INITIAL_CAPACITY);
+            buffer = pooled.buffer();
+        } else if (!buffer.hasRemaining()) {
+            grow(buffer.capacity() * 2); // места нет - расширяюсь
+        }
+        return channel.read(buffer);
+    }
+
+    // разбираю все целые кадры, хвост оставляю до следующего чтения
+    void drain(FrameHandler handler) throws IOException {
+        if (pooled == null) return;
+        buffer.flip(); // переворачиваю для чтения
+        try {
+            while (buffer.hasRemaining()) {
+                int frameStart = buffer.position();
+                int length;
+                if (protocol.isCompact()) { // v2: длина в varint
+                    length = CompactCodec.readVarint(buffer);
+                    if (length < 0) break; // даже длина пришла не целиком
+                } else {
+                    if (buffer.remaining() < 4) break;
+                    length = buffer.getInt();
+                }
+
+                if (length <= 0 || length > MAX_FRAME_LENGTH) { // поток испорчен - дальше читать нельзя
+                    throw new IOException("Некорректная длина сообщения: " + length);
+                }
+
+                if (buffer.remaining() < length) { // кадр пришел не целиком
+                    int headerLength = buffer.position() - frameStart;
+                    buffer.position(frameStart); // верну позицию на начало кадра
+                    ensureCapacity(headerLength + length);
+                    break;
+                }
+
+                int start = buffer.position();
+                // формат может смениться прямо в обработчике (согласование v2), следующий кадр читаю уже по-новому
+                handler.onFrame(buffer.slice(start, length)); // без копирования
+                buffer.position(start + length);
+            }
+        } finally {
+            buffer.compact(); // сдвигаю хвост в начало и возвращаюсь в режим записи
+            if (buffer.position() == 0) {
+                release(); // все разобрала - буфер мне больше не нужен
+            }
+        }
+    }
+
+    // возвращаю буфер в пул (при закрытии соединения)
+    void release() {
+        if (pooled != null) {
+            pooled.release();
+            pooled = null;
+            buffer = null;
+        }
+    }
+
+    // буфер в режиме чтения: расширяю так, чтобы влез кадр целиком
+    private void ensureCapacity(int frameSize) {
+        if (buffer.capacity() >= frameSize) return;
+        int capacity = buffer.capacity();
+        while (capacity < frameSize) {
+            capacity *= 2;
+        }
+        replace(Math.min(capacity, MAX_CAPACITY));
+        buffer.flip(); // оставляю в режиме чтения, compact в drain вернет режим записи
+    }
+
+    // буфер в режиме записи и полон
+    private void grow(int capacity) throws IOException {
+        if (buffer.capacity() >= MAX_CAPACITY) {
+            throw new IOException("Переполнение входящего буфера");
+        }
+        buffer.flip();
+        replace(Math.min(capacity, MAX_CAPACITY));
+    }
+
+    // переношу непрочитанное (от position до limit) в буфер побольше, новый - в режиме записи
+    private void replace(int capacity) {
+        PooledBuffer bigger = pool.acquire(capacity);
+        ByteBuffer target = bigger.buffer();
+        target.limit(target.capacity()); // пул ставит limit = capacity запрошенного, мне нужен весь буфер
+        target.put(buffer);
+        pooled.release();
+        pooled = bigger;
+        buffer = target;
+    }
+}
@@ -0,0 +1,50 @@
+package chat.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// гистограмма времени без замков: корзина i хранит замеры от 2^i до 2^(i+1) наносекунд.
+// запись - пара атомарных сложений, проценты считаю только когда их спрашивают
+final class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos | 1));
+        totalNanos.add(nanos);
+        if (nanos > maxNanos.get()) {
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    // снимок для JMX; проценты - верхняя граница корзины, то есть с точностью до двух раз
+    HistogramSnapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = buckets.get(i);
+            total += copy[i];
+        }
+        double mean = total == 0 ? 0 : totalNanos.sum() / (double) total / 1000;
+        return new HistogramSnapshot(total, mean, percentile(copy, total, 0.50), percentile(copy, total, 0.99),
+                percentile(copy, total, 0.999), maxNanos.get() / 1000.0);
+    }
+
+    private static double percentile(long[] buckets, long total, double fraction) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.scalb(1.0, i + 1) / 1000; // верхняя граница корзины, в микросекундах
+            }
+        }
+        return Double.MAX_VALUE;
+    }
+}
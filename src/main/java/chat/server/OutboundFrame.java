@@ -0,0 +1,19 @@
+package chat.server;
+
+import chat.PooledBuffer;
+import java.nio.ByteBuffer;
+
+// кадр в очереди соединения: своя позиция записи поверх общего буфера из пула
+final class OutboundFrame {
+    final ByteBuffer data;
+    final PooledBuffer owner;
+    final int length;        // полный размер кадра - для учета очереди
+    final boolean droppable; // можно выбросить, если клиент не успевает читать
+
+    OutboundFrame(PooledBuffer owner, boolean droppable) {
+        this.owner = owner.retain(); // держу кадр, пока не отправлю
+        this.data = owner.buffer().duplicate();
+        this.length = data.remaining();
+        this.droppable = droppable;
+    }
+}
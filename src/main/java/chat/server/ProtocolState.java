@@ -0,0 +1,47 @@
+package chat.server;
+
+import java.util.HashSet;
+import java.util.Set;
+
+// формат общения с одним клиентом: v1 по умолчанию, v2 (CompactCodec) после согласования
+final class ProtocolState {
+    private volatile boolean compact = false;
+    private volatile boolean deflate = false; // клиент v2 читает сжатые сообщения (FrameCompression)
+    private volatile int maxFrameLength = Integer.MAX_VALUE; // кадры длиннее клиент не примет (из HELLO)
+    // id пользователей, которые клиент уже знает по имени. id глобальные и только растут,
+    // поэтому множество, а не BitSet: размер - сколько отправителей клиент видел, а не сколько было входов на сервер
+    private final Set<Integer> knownUsers = new HashSet<>();
+
+    boolean isCompact() {
+        return compact;
+    }
+
+    void switchToCompact() {
+        compact = true;
+    }
+
+    boolean acceptsDeflate() {
+        return deflate;
+    }
+
+    void enableDeflate() {
+        deflate = true;
+    }
+
+    int maxFrameLength() {
+        return maxFrameLength;
+    }
+
+    void setMaxFrameLength(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    synchronized boolean knowsUser(int userId) {
+        return knownUsers.contains(userId);
+    }
+
+    // true, если клиент узнает этот id впервые (значит, имя надо прислать вместе с id)
+    synchronized boolean learnUser(int userId) {
+        return knownUsers.add(userId);
+    }
+}
@@ -0,0 +1,276 @@
+package chat.server;
+
+import chat.BufferPool;
+import chat.CompactCodec;
+import chat.Message;
+import chat.MessageView;
+import chat.PooledBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// последние сообщения комнат в памяти, уже закодированные: вошедшему отдаю их без кодирования и без диска.
+// на все комнаты общий бюджет байт; если он превышен, целиком выбрасываю кольца комнат, где дольше всех было тихо
+final class RecentFrames {
+    private final BufferPool pool;
+    private final int capacity; // кадров на комнату
+    private final long budget;  // байт на все комнаты
+    // откуда заполнить кольцо комнаты, которой нет в памяти (история на диске); null - неоткуда
+    private final BiConsumer<String, Consumer<ByteBuffer>> loader;
+
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+    private final AtomicLong used = new AtomicLong();  // байт во всех кольцах
+    private final AtomicLong clock = new AtomicLong(); // логическое время: у кого меньше - тот холоднее
+    private final Object evictLock = new Object();
+
+    RecentFrames(BufferPool pool, int capacity, long budget, BiConsumer<String, Consumer<ByteBuffer>> loader) {
+        this.pool = pool;
+        this.capacity = capacity;
+        this.budget = budget;
+        this.loader = loader;
+    }
+
+    // новый кадр комнаты (v1, с длиной впереди) с его автором и номером; звать под замком комнаты, в порядке рассылки
+    void append(String room, PooledBuffer frame, String author, long sequence) {
+        Ring ring = rings.get(room);
+        if (ring == null) {
+            if (loader != null) return; // кольцо соберу из истории при следующем входе, там будет и этот кадр
+            ring = rings.computeIfAbsent(room, name -> new Ring(false));
+        }
+        ring.add(frame.retain(), author, sequence);
+        evictIfNeeded();
+    }
+
+    // звать до входа, без замков: если кольца комнаты нет в памяти, собираю его из истории на диске.
+    // рассылка в это время не ждет - кольцо откладывает ее кадры и добавит их после истории
+    void preload(String room) {
+        if (loader == null) return;
+        Ring ring = rings.get(room);
+        if (ring == null) {
+            Ring loading = new Ring(true);
+            ring = rings.putIfAbsent(room, loading);
+            if (ring == null) {
+                load(room, loading);
+                evictIfNeeded();
+                return;
+            }
+        }
+        ring.awaitLoaded(); // комнату уже собирает другой вошедший
+    }
+
+    // кадры для вошедшего в его формате, от старых к новым; каждый кадр - своя ссылка, отпускает вызывающий.
+    // after >= 0 - клиент возвращается после обрыва и уже видел все до этого номера: отдаю только новее
+    // и без его собственных сообщений (их он показал сам, когда отправлял). звать под замком комнаты,
+    // перед этим - preload: иначе историю с диска прочитаю прямо здесь
+    void collect(String room, Session session, long after, List<PooledBuffer> out) {
+        Ring ring = rings.get(room);
+        if (ring == null) { // кольцо выбросили после preload - рассылка стоит, читаю сама
+            ring = new Ring(loader != null);
+            if (loader != null) load(room, ring);
+            rings.put(room, ring);
+        }
+        ring.awaitLoaded();
+        ring.collect(session.protocol().isCompact(), after, after >= 0 ? session.getUsername() : null, out);
+        evictIfNeeded(); // v2-кадры кодируются при первом запросе и тоже занимают место
+    }
+
+    // сервер остановлен: все кадры возвращаю в пул
+    void clear() {
+        for (String room : rings.keySet()) {
+            Ring ring = rings.remove(room);
+            if (ring != null) ring.clear();
+        }
+    }
+
+    private void load(String room, Ring ring) {
+        MessageView view = new MessageView();
+        try {
+            loader.accept(room, stored -> ring.addLoaded(copy(stored), view));
+        } finally {
+            ring.finishLoading();
+        }
+    }
+
+    private PooledBuffer copy(ByteBuffer stored) {
+        PooledBuffer frame = pool.acquire(stored.remaining());
+        frame.buffer().put(stored.duplicate()).flip();
+        return frame;
+    }
+
+    // выбрасываю самые холодные кольца, пока не уложусь в бюджет
+    private void evictIfNeeded() {
+        if (used.get() <= budget) return;
+        synchronized (evictLock) {
+            while (used.get() > budget) {
+                Map.Entry<String, Ring> coldest = null;
+                for (Map.Entry<String, Ring> entry : rings.entrySet()) {
+                    if (coldest == null || entry.getValue().lastUsed < coldest.getValue().lastUsed) {
+                        coldest = entry;
+                    }
+                }
+                if (coldest == null) return;
+                rings.remove(coldest.getKey(), coldest.getValue());
+                coldest.getValue().clear();
+            }
+        }
+    }
+
+    // кольцо одной комнаты: старый формат храню всегда, v2 (имена строками) кодирую по первому запросу
+    private final class Ring {
+        private final PooledBuffer[] v1 = new PooledBuffer[capacity];
+        private final PooledBuffer[] compact = new PooledBuffer[capacity];
+        private final String[] authors = new String[capacity];
+        private final long[] sequences = new long[capacity]; // номер в комнате: по нему при возвращении пропускаю уже показанное
+        private int head = 0; // индекс самого старого кадра
+        private int size = 0;
+        private boolean dead = false; // выброшено из-за бюджета, новые кадры не принимаю
+        private boolean loading;      // собираю из истории: кадры рассылки пока откладываю в late
+        private final List<Late> late = new ArrayList<>();
+        private volatile long lastUsed = clock.incrementAndGet();
+
+        Ring(boolean loading) {
+            this.loading = loading;
+        }
+
+        // кадр из истории на диске: автора и номер достаю из него самого
+        void addLoaded(PooledBuffer frame, MessageView view) {
+            ByteBuffer data = frame.buffer();
+            try {
+                view.wrap(data.slice(data.position() + 4, data.remaining() - 4));
+            } catch (IOException e) {
+                frame.release(); // испорченную запись не показываю
+                return;
+            }
+            store(frame, view.getUsername(), view.getSequence());
+        }
+
+        // кадр рассылки
+        synchronized void add(PooledBuffer frame, String author, long sequence) {
+            if (loading && !dead) {
+                late.add(new Late(frame, author, sequence));
+                return;
+            }
+            store(frame, author, sequence);
+        }
+
+        // история прочитана: добавляю отложенные кадры, кроме тех, что история уже успела отдать
+        synchronized void finishLoading() {
+            long loaded = size > 0 ? sequences[(head + size - 1) % capacity] : 0;
+            for (Late frame : late) {
+                if (frame.sequence <= loaded) {
+                    frame.frame.release();
+                } else {
+                    store(frame.frame, frame.author, frame.sequence);
+                }
+            }
+            late.clear();
+            loading = false;
+            notifyAll();
+        }
+
+        synchronized void awaitLoaded() {
+            boolean interrupted = false;
+            while (loading) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true; // дождусь все равно: без истории вход не собрать
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+
+        private synchronized void store(PooledBuffer frame, String author, long sequence) {
+            lastUsed = clock.incrementAndGet();
+            if (dead) {
+                frame.release();
+                return;
+            }
+            if (size == capacity) { // кольцо полно - вытесняю самый старый
+                drop(head);
+                head = (head + 1) % capacity;
+                size--;
+            }
+            int slot = (head + size) % capacity;
+            v1[slot] = frame;
+            authors[slot] = author;
+            sequences[slot] = sequence;
+            used.addAndGet(frame.buffer().capacity());
+            size++;
+        }
+
+        synchronized void collect(boolean compactFormat, long after, String skipAuthor, List<PooledBuffer> out) {
+            lastUsed = clock.incrementAndGet();
+            for (int i = 0; i < size; i++) {
+                int slot = (head + i) % capacity;
+                if (after >= 0 && (sequences[slot] <= after || authors[slot].equals(skipAuthor))) continue;
+                PooledBuffer frame = v1[slot];
+                if (compactFormat) {
+                    if (compact[slot] == null) {
+                        compact[slot] = encodeCompact(frame);
+                        if (compact[slot] == null) continue;
+                        used.addAndGet(compact[slot].buffer().capacity());
+                    }
+                    frame = compact[slot];
+                }
+                out.add(frame.retain());
+            }
+        }
+
+        synchronized void clear() {
+            dead = true;
+            for (int i = 0; i < size; i++) {
+                drop((head + i) % capacity);
+            }
+            size = 0;
+            late.forEach(frame -> frame.frame.release());
+            late.clear();
+        }
+
+        private void drop(int slot) {
+            used.addAndGet(-v1[slot].buffer().capacity());
+            v1[slot].release();
+            v1[slot] = null;
+            authors[slot] = null;
+            if (compact[slot] != null) {
+                used.addAndGet(-compact[slot].buffer().capacity());
+                compact[slot].release();
+                compact[slot] = null;
+            }
+        }
+
+        // имена пишу строками: вошедший клиент может еще не знать id автора, а id комнаты мог смениться
+        private PooledBuffer encodeCompact(PooledBuffer v1Frame) {
+            ByteBuffer data = v1Frame.buffer();
+            Message message;
+            try {
+                message = new MessageView().wrap(data.slice(data.position() + 4, data.remaining() - 4)).toMessage();
+            } catch (IOException e) {
+                return null; // кадры кладу сама, сюда не попаду
+            }
+            PooledBuffer frame = pool.acquire(CompactCodec.frameLength(message));
+            CompactCodec.writeFrame(message, frame.buffer());
+            frame.buffer().flip();
+            return frame;
+        }
+    }
+
+    // кадр рассылки, пришедший, пока кольцо собиралось из истории
+    private static final class Late {
+        final PooledBuffer frame;
+        final String author;
+        final long sequence;
+
+        Late(PooledBuffer frame, String author, long sequence) {
+            this.frame = frame;
+            this.author = author;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package chat.server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// комната: имя, id для формата v2, кто в ней сидит и номер последнего сообщения
+final class Room {
+    private final String name;
+    private final int id;
+    private final Set<Session> members = ConcurrentHashMap.newKeySet(); // рассылка обходит без замка
+    // номера начинаю с текущего времени в микросекундах, а не с нуля: у комнаты, созданной заново
+    // (в том числе после перезапуска сервера), номера все равно больше старых, и клиент не спутает их при возобновлении
+    private long sequence = System.currentTimeMillis() * 1000; // под замком комнаты
+
+    Room(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    String getName() { return name; }
+    int getId() { return id; }
+    Set<Session> members() { return members; }
+
+    // номер следующего сообщения чата; звать под замком комнаты
+    long nextSequence() {
+        return ++sequence;
+    }
+}
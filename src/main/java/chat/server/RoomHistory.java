@@ -0,0 +1,130 @@
+package chat.server;
+
+import chat.PooledBuffer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// история комнат на диске: у каждой комнаты свой журнал в отдельной папке.
+// рассылка только кладет кадр в очередь журнала, в файл пишет и на диск сбрасывает отдельный поток,
+// один force() на всю накопившуюся пачку
+final class RoomHistory {
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final ChatService service; // для логов
+
+    private final Map<String, RoomLog> logs = new ConcurrentHashMap<>();
+    private final BlockingQueue<RoomLog> dirty = new LinkedBlockingQueue<>(); // журналы с несохраненными записями
+    private Thread writer;
+    private volatile boolean running = false;
+
+    RoomHistory(ServerConfig config, ChatService service) {
+        this.directory = config.getHistoryDirectory();
+        this.segmentSize = config.getHistorySegmentSize();
+        this.maxSegments = config.getHistoryMaxSegments();
+        this.service = service;
+    }
+
+    void start() {
+        running = true;
+        writer = new Thread(this::runWriter, "chat-history");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // дожидаюсь, пока писатель сохранит все, что уже в очереди
+    void stop() {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // кадр v1 (с длиной впереди) попадет в журнал комнаты; сам кадр не трогаю, беру свою ссылку
+    void append(String room, PooledBuffer frame) {
+        RoomLog log = log(room);
+        if (log.append(frame)) {
+            dirty.add(log);
+        }
+    }
+
+    // последние count сообщений комнаты в формате v1 (с длиной впереди), от старых к новым
+    void replay(String room, int count, Consumer<ByteBuffer> sink) {
+        if (count == 0) return;
+        RoomLog log = log(room);
+        try {
+            log.replay(count, sink);
+        } catch (IOException e) {
+            service.log("Ошибка чтения истории комнаты " + room + ": " + e.getMessage());
+        }
+    }
+
+    // комнату удалили: файл дописываю и отпускаю, история остается на случай, если комнату создадут снова
+    void retire(String room) {
+        RoomLog log = logs.get(room);
+        if (log != null && log.retire()) {
+            dirty.add(log);
+        }
+    }
+
+    // журнал создается без обращения к диску: файлы откроет писатель или первое чтение истории
+    private RoomLog log(String room) {
+        return logs.computeIfAbsent(room, name -> new RoomLog(directory.resolve(folderName(name)),
+                segmentSize, maxSegments, message -> service.log("История комнаты " + name + ": " + message)));
+    }
+
+    // имя комнаты может содержать что угодно, в имени папки - только безопасные символы
+    private static String folderName(String room) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(room.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // поток писателя: беру все журналы, куда что-то добавили, пишу и сбрасываю на диск
+    private void runWriter() {
+        List<RoomLog> batch = new ArrayList<>();
+        while (running || !dirty.isEmpty()) {
+            try {
+                RoomLog first = dirty.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                dirty.drainTo(batch); // все, что успело накопиться, - одной пачкой
+
+                for (RoomLog log : batch) {
+                    try {
+                        int lost = log.writePending();
+                        if (lost > 0) {
+                            service.log("История: не сохранено сообщений - " + lost);
+                        }
+                    } catch (IOException e) {
+                        service.log("Ошибка записи истории: " + e.getMessage());
+                    }
+                }
+                for (RoomLog log : batch) {
+                    try {
+                        log.force();
+                        log.unmapIfRetired();
+                    } catch (UncheckedIOException e) {
+                        service.log("Ошибка записи истории: " + e.getMessage());
+                    }
+                }
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package chat.server;
+
+import chat.PooledBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// журнал одной комнаты: файлы-сегменты фиксированного размера, в которые пишу через MappedByteBuffer.
+// запись = кадр в формате Message.toBytes() с длиной впереди + та же длина еще раз в конце,
+// чтобы последние сообщения можно было найти, идя от конца к началу.
+// замков два: очередь под монитором this (его берет рассылка, держу мгновение),
+// файлы под files (писатель и чтение истории) - рассылка не ждет ни новых сегментов, ни промахов по страницам.
+// если нужны оба - сначала files, потом this.
+// файлы открываю при первой записи (поток писателя) или первом чтении истории, рассылку диск не задерживает
+final class RoomLog {
+    private static final int TRAILER = 4; // длина в конце записи
+    private static final int MAX_PENDING = 4096; // если диск не успевает, новые записи не копятся бесконечно
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Consumer<String> log; // ошибки, из-за которых запись не прерываю
+    private volatile boolean broken = false; // открыть не удалось: до перезапуска эту историю не веду
+
+    // под монитором this
+    private ArrayDeque<PooledBuffer> pending = new ArrayDeque<>(); // ждут писателя
+    private boolean queued = false;  // стою в очереди писателя
+    private boolean retired = false; // комнату удалили: после записи отпускаю файл
+    private int dropped = 0;         // сколько записей не влезло в очередь
+
+    // под files
+    private final Object files = new Object();
+    private boolean opened = false;
+    private ArrayDeque<PooledBuffer> writing = new ArrayDeque<>(); // забранная у рассылки очередь, меняю местами с pending
+    private final List<Path> segments = new ArrayList<>(); // от старых к новым
+    private final List<Integer> segmentEnds = new ArrayList<>(); // где кончаются данные в закрытых сегментах
+    private final List<ByteBuffer> segmentMaps = new ArrayList<>(); // отображения закрытых сегментов, null - еще не нужны
+    private MappedByteBuffer active; // последний сегмент, position - конец данных; null - отображение отпущено
+    private int activeEnd;           // конец данных, пока active отпущен
+    private boolean dirty = false;   // в active есть записанное, но не сброшенное на диск
+
+    RoomLog(Path directory, int segmentSize, int maxSegments, Consumer<String> log) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.log = log;
+    }
+
+    // кадр в формате v1 ждет писателя; true - если журнал только что встал в очередь на запись
+    synchronized boolean append(PooledBuffer frame) {
+        if (broken) return false;
+        retired = false; // комнату создали заново
+        if (pending.size() >= MAX_PENDING) {
+            dropped++;
+            return false;
+        }
+        pending.add(frame.retain());
+        return enqueue();
+    }
+
+    // комнату удалили: писатель допишет хвост и отпустит файл; true - если надо разбудить писателя
+    synchronized boolean retire() {
+        retired = true;
+        return enqueue();
+    }
+
+    // поток писателя: забираю очередь целиком и пишу ее в файл уже без монитора this;
+    // возвращаю сколько записей пропало
+    int writePending() throws IOException {
+        synchronized (files) { // чтение истории ждет: забранные кадры уже не в очереди, но еще не в файле
+            if (!open()) {
+                discardPending();
+                return 0; // об этом уже сказала при открытии
+            }
+            ArrayDeque<PooledBuffer> batch;
+            int lost;
+            synchronized (this) {
+                queued = false;
+                batch = pending;
+                pending = writing;
+                writing = batch;
+                lost = dropped;
+                dropped = 0;
+            }
+
+            boolean written = false;
+            PooledBuffer frame;
+            try {
+                while ((frame = batch.poll()) != null) {
+                    try {
+                        if (!writeRecord(frame.buffer().duplicate())) lost++;
+                    } finally {
+                        frame.release();
+                    }
+                }
+                written = true;
+            } finally {
+                while ((frame = batch.poll()) != null) { // после ошибки остаток тоже отпускаю
+                    frame.release();
+                    lost++;
+                }
+                if (!written) {
+                    synchronized (this) {
+                        dropped += lost; // сообщу в следующий раз, сейчас вылетает исключение
+                    }
+                }
+            }
+            return lost;
+        }
+    }
+
+    // сброс на диск одним вызовом на всю пачку записей
+    void force() {
+        MappedByteBuffer toForce;
+        synchronized (files) {
+            if (!dirty) return;
+            dirty = false;
+            toForce = active;
+        }
+        toForce.force(); // msync делаю без замка, чтению истории он не мешает
+    }
+
+    // отдаю последние count кадров (от старых к новым), включая еще не записанные;
+    // буферы годятся только внутри sink
+    void replay(int count, Consumer<ByteBuffer> sink) throws IOException {
+        synchronized (files) { // пока держу, писатель очередь не заберет и кадры из нее не отпустит
+            if (!open()) return;
+            List<ByteBuffer> fromPending = new ArrayList<>();
+            synchronized (this) {
+                for (PooledBuffer frame : pending) {
+                    fromPending.add(frame.buffer().duplicate());
+                }
+            }
+            int fromFiles = Math.max(0, count - fromPending.size());
+
+            ArrayDeque<ByteBuffer> found = new ArrayDeque<>(); // собираю с конца
+            for (int i = segments.size() - 1; i >= 0 && found.size() < fromFiles; i--) {
+                boolean isActive = i == segments.size() - 1;
+                ByteBuffer segment = isActive ? active().duplicate() : closedSegment(i);
+                int end = isActive ? active.position() : segmentEnds.get(i);
+                while (end > 0 && found.size() < fromFiles) {
+                    int length = segment.getInt(end - TRAILER);
+                    int start = end - TRAILER - length - 4;
+                    found.addFirst(segment.slice(start, 4 + length));
+                    end = start;
+                }
+            }
+            found.forEach(sink);
+
+            for (int i = Math.max(0, fromPending.size() - count); i < fromPending.size(); i++) {
+                sink.accept(fromPending.get(i));
+            }
+        }
+    }
+
+    // поток писателя после force(): у удаленной комнаты отпускаю отображения, файлы остаются на диске
+    void unmapIfRetired() {
+        synchronized (files) {
+            synchronized (this) {
+                if (!retired || !pending.isEmpty()) return;
+            }
+            if (!opened || active == null || dirty) return;
+            activeEnd = active.position();
+            active = null; // саму память освободит сборщик мусора
+            Collections.fill(segmentMaps, null);
+        }
+    }
+
+    // под files: сегменты на диске -> списки и отображения; false - журнал не открыть
+    private boolean open() {
+        if (opened) return true;
+        if (broken) return false;
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(p -> p.getFileName().toString().endsWith(".log")).sorted().forEach(segments::add);
+            }
+            if (segments.isEmpty()) {
+                segments.add(directory.resolve(segmentName(1)));
+            }
+            for (int i = 0; i < segments.size() - 1; i++) {
+                ByteBuffer segment = map(segments.get(i), FileChannel.MapMode.READ_ONLY);
+                segmentEnds.add(findEnd(segment));
+                segmentMaps.add(segment); // пригодится для истории при первом же входе
+            }
+            active = map(segments.get(segments.size() - 1), FileChannel.MapMode.READ_WRITE);
+            active.position(findEnd(active)); // после перезапуска продолжаю с конца данных
+            opened = true;
+            return true;
+        } catch (IOException e) {
+            broken = true;
+            segments.clear();
+            segmentEnds.clear();
+            segmentMaps.clear();
+            active = null;
+            log.accept("не удалось открыть, история выключена до перезапуска: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // журнал не открылся: то, что успело встать в очередь, просто отпускаю
+    private void discardPending() {
+        ArrayDeque<PooledBuffer> batch;
+        synchronized (this) {
+            queued = false;
+            batch = pending;
+            pending = new ArrayDeque<>();
+            dropped = 0;
+        }
+        batch.forEach(PooledBuffer::release);
+    }
+
+    private boolean enqueue() {
+        if (queued) return false;
+        queued = true;
+        return true;
+    }
+
+    // закрытый сегмент отображаю один раз и держу, пока комната жива
+    private ByteBuffer closedSegment(int index) throws IOException {
+        ByteBuffer segment = segmentMaps.get(index);
+        if (segment == null) {
+            segment = map(segments.get(index), FileChannel.MapMode.READ_ONLY);
+            segmentMaps.set(index, segment);
+        }
+        return segment;
+    }
+
+    private MappedByteBuffer active() throws IOException {
+        if (active == null) { // комната снова ожила
+            active = map(segments.get(segments.size() - 1), FileChannel.MapMode.READ_WRITE);
+            active.position(activeEnd);
+        }
+        return active;
+    }
+
+    // false - в файл такая запись не влезет никогда
+    private boolean writeRecord(ByteBuffer frame) throws IOException {
+        int length = frame.remaining() - 4;
+        if (frame.remaining() + TRAILER > segmentSize) {
+            return false;
+        }
+        if (active().remaining() < frame.remaining() + TRAILER) {
+            rollover();
+        }
+        active.put(frame);
+        active.putInt(length);
+        dirty = true;
+        return true;
+    }
+
+    // текущий сегмент полон: сбрасываю его и начинаю новый, лишние старые удаляю
+    private void rollover() throws IOException {
+        active.force();
+        segmentEnds.add(active.position());
+        segmentMaps.add(active.duplicate().clear()); // то же отображение дальше служит для чтения
+
+        Path last = segments.get(segments.size() - 1);
+        int number = Integer.parseInt(last.getFileName().toString().replace(".log", "")) + 1;
+        Path next = directory.resolve(segmentName(number));
+        segments.add(next);
+        active = map(next, FileChannel.MapMode.READ_WRITE);
+
+        // сначала забываю сегмент во всех трех списках, чтобы индексы не разошлись, а уже потом удаляю файл
+        while (segments.size() > maxSegments) {
+            Path oldest = segments.remove(0);
+            segmentEnds.remove(0);
+            segmentMaps.remove(0);
+            try {
+                Files.deleteIfExists(oldest);
+            } catch (IOException e) {
+                log.accept("не удалось удалить старый сегмент " + oldest + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private MappedByteBuffer map(Path file, FileChannel.MapMode mode) throws IOException {
+        if (mode == FileChannel.MapMode.READ_ONLY) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return channel.map(mode, 0, channel.size());
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(mode, 0, segmentSize); // файл сразу нужного размера, хвост - нули
+        }
+    }
+
+    // иду по записям от начала; конец - там, где запись пустая или оборвана
+    private static int findEnd(ByteBuffer segment) {
+        int position = 0;
+        while (position + 4 <= segment.limit()) {
+            int length = segment.getInt(position);
+            int end = position + 4 + length + TRAILER;
+            if (length <= 0 || end > segment.limit() || end < 0
+                    || segment.getInt(end - TRAILER) != length) {
+                break;
+            }
+            position = end;
+        }
+        return position;
+    }
+
+    private static String segmentName(int number) {
+        return String.format("%08d.log", number);
+    }
+}
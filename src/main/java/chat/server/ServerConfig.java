@@ -0,0 +1,168 @@
+package chat.server;
+
+import java.nio.file.Path;
+
+// настройки сервера; значения по умолчанию подходят для обычного запуска
+public class ServerConfig {
+    // что делать с клиентом, который не успевает читать
+    public enum SlowConsumerPolicy {
+        DROP_OLDEST, // выбрасываю самые старые сообщения чата из его очереди
+        DROP_NEW,    // новые сообщения чата ему не кладу, пока не догонит
+        DISCONNECT   // предупреждаю и отключаю
+    }
+
+    // что делать, если журнал не успевает за сервером
+    public enum LogOverflowPolicy {
+        DROP_NEW, // новые записи выбрасываю, потом пишу, сколько пропало
+        BLOCK     // поток, который пишет в журнал, ждет места
+    }
+
+    private int workerCount = Runtime.getRuntime().availableProcessors(); // рабочих потоков
+    private int maxWriteBatch = 64; // сколько кадров максимум отдаю в один write(ByteBuffer[])
+    private long maxFlushDelayMicros = 1000; // дольше этого кадры в очереди за один проход не ждут
+    private long outboundHighWatermark = 1024 * 1024; // столько байт в очереди клиента - и он считается медленным
+    private long outboundLowWatermark = 256 * 1024;   // ниже этого клиент снова успевает
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DROP_OLDEST;
+    private int compressionThreshold = 1024; // текст от стольких байт сжимаю тем, кто умеет читать сжатое; 0 - не сжимаю
+
+    private Path historyDirectory = null; // куда писать историю комнат; null - история выключена
+    private int historyReplayCount = 50; // сколько последних сообщений комнаты держу в памяти и показываю вошедшему
+    private int historySegmentSize = 4 * 1024 * 1024; // размер одного файла истории
+    private int historyMaxSegments = 8; // сколько файлов храню на комнату, старые удаляю
+    private long recentFramesBudget = 16 * 1024 * 1024; // память под последние сообщения всех комнат
+
+    private int logBufferSize = 8192; // записей в кольце журнала, степень двойки
+    private LogOverflowPolicy logOverflowPolicy = LogOverflowPolicy.DROP_NEW;
+    private boolean logChatMessages = true; // писать ли в журнал каждое сообщение чата
+
+    public int getWorkerCount() { return workerCount; }
+    public int getMaxWriteBatch() { return maxWriteBatch; }
+    public long getMaxFlushDelayMicros() { return maxFlushDelayMicros; }
+    public long getOutboundHighWatermark() { return outboundHighWatermark; }
+    public long getOutboundLowWatermark() { return outboundLowWatermark; }
+    public SlowConsumerPolicy getSlowConsumerPolicy() { return slowConsumerPolicy; }
+    public int getCompressionThreshold() { return compressionThreshold; }
+    public Path getHistoryDirectory() { return historyDirectory; }
+    public int getHistoryReplayCount() { return historyReplayCount; }
+    public int getHistorySegmentSize() { return historySegmentSize; }
+    public int getHistoryMaxSegments() { return historyMaxSegments; }
+    public long getRecentFramesBudget() { return recentFramesBudget; }
+    public int getLogBufferSize() { return logBufferSize; }
+    public LogOverflowPolicy getLogOverflowPolicy() { return logOverflowPolicy; }
+    public boolean isLogChatMessages() { return logChatMessages; }
+
+    public ServerConfig setWorkerCount(int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("нужен хотя бы один рабочий поток");
+        }
+        this.workerCount = workerCount;
+        return this;
+    }
+
+    public ServerConfig setMaxWriteBatch(int maxWriteBatch) {
+        if (maxWriteBatch < 1) {
+            throw new IllegalArgumentException("пачка должна содержать хотя бы один кадр");
+        }
+        this.maxWriteBatch = maxWriteBatch;
+        return this;
+    }
+
+    public ServerConfig setMaxFlushDelayMicros(long maxFlushDelayMicros) {
+        if (maxFlushDelayMicros < 0) {
+            throw new IllegalArgumentException("задержка не может быть отрицательной");
+        }
+        this.maxFlushDelayMicros = maxFlushDelayMicros;
+        return this;
+    }
+
+    public ServerConfig setOutboundHighWatermark(long outboundHighWatermark) {
+        if (outboundHighWatermark < 1) {
+            throw new IllegalArgumentException("верхняя отметка должна быть больше нуля");
+        }
+        this.outboundHighWatermark = outboundHighWatermark;
+        return this;
+    }
+
+    // если окажется выше верхней, сервер возьмет верхнюю
+    public ServerConfig setOutboundLowWatermark(long outboundLowWatermark) {
+        if (outboundLowWatermark < 0) {
+            throw new IllegalArgumentException("нижняя отметка не может быть отрицательной");
+        }
+        this.outboundLowWatermark = outboundLowWatermark;
+        return this;
+    }
+
+    public ServerConfig setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        if (slowConsumerPolicy == null) {
+            throw new IllegalArgumentException("политика не задана");
+        }
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        return this;
+    }
+
+    public ServerConfig setCompressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException("порог сжатия не может быть отрицательным");
+        }
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
+    public ServerConfig setHistoryDirectory(Path historyDirectory) {
+        this.historyDirectory = historyDirectory;
+        return this;
+    }
+
+    public ServerConfig setHistoryReplayCount(int historyReplayCount) {
+        if (historyReplayCount < 0) {
+            throw new IllegalArgumentException("количество сообщений не может быть отрицательным");
+        }
+        this.historyReplayCount = historyReplayCount;
+        return this;
+    }
+
+    public ServerConfig setHistorySegmentSize(int historySegmentSize) {
+        if (historySegmentSize < 2 * (FrameDecoder.MAX_FRAME_LENGTH + 8)) {
+            throw new IllegalArgumentException("файл истории должен вмещать хотя бы два самых больших сообщения");
+        }
+        this.historySegmentSize = historySegmentSize;
+        return this;
+    }
+
+    public ServerConfig setHistoryMaxSegments(int historyMaxSegments) {
+        if (historyMaxSegments < 1) {
+            throw new IllegalArgumentException("нужен хотя бы один файл истории");
+        }
+        this.historyMaxSegments = historyMaxSegments;
+        return this;
+    }
+
+    public ServerConfig setRecentFramesBudget(long recentFramesBudget) {
+        if (recentFramesBudget < 0) {
+            throw new IllegalArgumentException("бюджет не может быть отрицательным");
+        }
+        this.recentFramesBudget = recentFramesBudget;
+        return this;
+    }
+
+    public ServerConfig setLogBufferSize(int logBufferSize) {
+        if (logBufferSize < 2 || Integer.bitCount(logBufferSize) != 1) {
+            throw new IllegalArgumentException("размер журнала должен быть степенью двойки");
+        }
+        this.logBufferSize = logBufferSize;
+        return this;
+    }
+
+    public ServerConfig setLogOverflowPolicy(LogOverflowPolicy logOverflowPolicy) {
+        if (logOverflowPolicy == null) {
+            throw new IllegalArgumentException("политика не задана");
+        }
+        this.logOverflowPolicy = logOverflowPolicy;
+        return this;
+    }
+
+    public ServerConfig setLogChatMessages(boolean logChatMessages) {
+        this.logChatMessages = logChatMessages;
+        return this;
+    }
+}
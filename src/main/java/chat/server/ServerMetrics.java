@@ -0,0 +1,134 @@
+package chat.server;
+
+import chat.BufferPool;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// счетчики сервера без замков: горячий путь только прибавляет к LongAdder,
+// все, что можно посчитать по состоянию чата (комнаты, очереди), считаю в момент запроса из JMX
+final class ServerMetrics implements ServerMetricsMXBean {
+    private final ChatService service;
+    private final BufferPool pool = BufferPool.shared();
+
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder framesIn = new LongAdder();
+    private final LongAdder framesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder decodeErrors = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LatencyHistogram loopIteration = new LatencyHistogram();
+    private final LatencyHistogram broadcastFanOut = new LatencyHistogram();
+
+    private ObjectName name; // под каким именем зарегистрирован в JMX
+
+    ServerMetrics(ChatService service) {
+        this.service = service;
+    }
+
+    void connectionOpened() { connectionsAccepted.increment(); }
+    void connectionClosed() { connectionsClosed.increment(); }
+
+    void frameIn(int bytes) {
+        framesIn.increment();
+        bytesIn.add(bytes);
+    }
+
+    void framesOut(int frames, long bytes) {
+        framesOut.add(frames);
+        bytesOut.add(bytes);
+    }
+
+    void decodeError() { decodeErrors.increment(); }
+    void framesDropped(int frames) { droppedFrames.add(frames); }
+    void loopIteration(long nanos) { loopIteration.record(nanos); }
+    void broadcastFanOut(long nanos) { broadcastFanOut.record(nanos); }
+
+    // публикую в платформенном MBeanServer; ошибка JMX сервер не останавливает
+    void register(String type, int port) {
+        try {
+            ObjectName objectName = new ObjectName("chat.server:type=" + type + ",port=" + port);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName); // остался от прошлого запуска
+            }
+            server.registerMBean(this, objectName);
+            name = objectName;
+        } catch (JMException e) {
+            service.log("Ошибка регистрации метрик в JMX: " + e.getMessage());
+        }
+    }
+
+    void unregister() {
+        if (name == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            // уже снят
+        }
+        name = null;
+    }
+
+    @Override public int getConnections() { return (int) (connectionsAccepted.sum() - connectionsClosed.sum()); }
+    @Override public long getConnectionsAccepted() { return connectionsAccepted.sum(); }
+    @Override public int getUsers() { return service.sessions().size(); }
+    @Override public int getRooms() { return service.rooms().size(); }
+
+    @Override
+    public Map<String, Integer> getRoomMembers() {
+        Map<String, Integer> members = new TreeMap<>();
+        for (Room room : service.rooms()) {
+            members.put(room.getName(), room.members().size());
+        }
+        return members;
+    }
+
+    @Override public long getFramesIn() { return framesIn.sum(); }
+    @Override public long getFramesOut() { return framesOut.sum(); }
+    @Override public long getBytesIn() { return bytesIn.sum(); }
+    @Override public long getBytesOut() { return bytesOut.sum(); }
+    @Override public long getDecodeErrors() { return decodeErrors.sum(); }
+
+    @Override
+    public long getOutboundQueuedBytes() {
+        long total = 0;
+        for (Session session : service.sessions()) {
+            total += session.pendingBytes();
+        }
+        return total;
+    }
+
+    @Override
+    public long getMaxOutboundQueuedBytes() {
+        long max = 0;
+        for (Session session : service.sessions()) {
+            max = Math.max(max, session.pendingBytes());
+        }
+        return max;
+    }
+
+    @Override
+    public int getSlowConsumers() {
+        int slow = 0;
+        for (Session session : service.sessions()) {
+            if (session.isSlow()) slow++;
+        }
+        return slow;
+    }
+
+    @Override public long getDroppedFrames() { return droppedFrames.sum(); }
+
+    @Override public long getPoolHits() { return pool.getHits(); }
+    @Override public long getPoolMisses() { return pool.getMisses(); }
+    @Override public long getPoolOutstanding() { return pool.getOutstanding(); }
+    @Override public long getPoolLeaks() { return pool.getLeaks(); }
+
+    @Override public HistogramSnapshot getLoopIteration() { return loopIteration.snapshot(); }
+    @Override public HistogramSnapshot getBroadcastFanOut() { return broadcastFanOut.snapshot(); }
+}
@@ -0,0 +1,31 @@
+package chat.server;
+
+import java.util.Map;
+
+// что сервер публикует в JMX (jconsole, VisualVM): chat.server:type=<сервер>,port=<порт>
+public interface ServerMetricsMXBean {
+    int getConnections();
+    long getConnectionsAccepted();
+    int getUsers();
+    int getRooms();
+    Map<String, Integer> getRoomMembers(); // комната - сколько в ней человек
+
+    long getFramesIn();
+    long getFramesOut();
+    long getBytesIn();
+    long getBytesOut();
+    long getDecodeErrors();
+
+    long getOutboundQueuedBytes();    // ждут отправки у всех клиентов
+    long getMaxOutboundQueuedBytes(); // самая длинная очередь
+    int getSlowConsumers();           // клиенты выше верхней отметки
+    long getDroppedFrames();          // выброшено у медленных клиентов
+
+    long getPoolHits();
+    long getPoolMisses();
+    long getPoolOutstanding();
+    long getPoolLeaks();
+
+    HistogramSnapshot getLoopIteration(); // один проход рабочего цикла NIO, когда было что делать
+    HistogramSnapshot getBroadcastFanOut(); // раскладка одного кадра по очередям всей комнаты
+}
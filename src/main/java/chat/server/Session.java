@@ -0,0 +1,91 @@
+package chat.server;
+
+import chat.FrameCompression;
+import chat.PooledBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.Inflater;
+
+// клиент с точки зрения логики чата: кто он, в какой комнате и как ему отправить кадр.
+// NIO-соединение прикреплено к своему SelectionKey, так что на каждое сообщение не нужно искать его в картах
+abstract class Session {
+    static final long EVICT_GRACE_MILLIS = 5000; // столько жду, пока отключаемому уйдет уведомление
+    private final ProtocolState protocol = new ProtocolState(); // формат кадров
+    private volatile String username; // null, пока не зарегистрировался
+    private volatile int userId;      // id для формата v2
+    private volatile Room room;       // текущая комната или null
+    private volatile String resumeToken; // секрет клиента для возобновления после обрыва; null - клиент его не прислал
+    private volatile boolean slow;    // не успевает читать: очередь выше верхней отметки и еще не опустилась ниже нижней
+    // сжатые сообщения клиента распаковываю сюда; кадры сессии разбирает один поток за раз
+    private Inflater inflater;
+    private ByteBuffer inflated;
+
+    // кадр "длина + байты"; буфер общий для всей рассылки: позицию не трогаю,
+    // а если кадр нужен после возврата из send - беру свою ссылку через retain.
+    // droppable - обычное сообщение чата, его можно выбросить, если клиент не успевает читать
+    abstract void send(PooledBuffer frame, boolean droppable);
+
+    void send(PooledBuffer frame) {
+        send(frame, false);
+    }
+
+    // сколько байт ждут отправки клиенту
+    abstract long pendingBytes();
+
+    // выбрасываю самые старые из ждущих кадров чата, пока очередь не станет не больше target байт
+    abstract void dropOldest(long target);
+
+    // выбрасываю его чат, дописываю остальное (там уведомление) не дольше EVICT_GRACE_MILLIS
+    // и закрываю соединение; из чата клиента выведет транспорт
+    abstract void evict();
+
+    // несколько кадров подряд; транспорт сам отправит их одной пачкой через write(ByteBuffer[])
+    void sendAll(List<PooledBuffer> frames) {
+        for (PooledBuffer frame : frames) {
+            send(frame);
+        }
+    }
+
+    // сжатое сообщение клиента -> обычное v2; результат живет до следующего сжатого кадра этой сессии
+    ByteBuffer inflate(ByteBuffer message) throws IOException {
+        if (inflater == null) {
+            inflater = new Inflater(true);
+            inflated = ByteBuffer.allocate(FrameDecoder.MAX_FRAME_LENGTH);
+        }
+        return FrameCompression.inflate(inflater, message, inflated);
+    }
+
+    // соединение закрыто: нативную память Inflater отдаю сразу, не дожидаясь GC
+    void releaseInflater() {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+            inflated = null;
+        }
+    }
+
+    // в каком формате клиент читает и пишет кадры
+    ProtocolState protocol() { return protocol; }
+
+    String getUsername() { return username; }
+    int getUserId() { return userId; }
+    Room getRoom() { return room; }
+    String getResumeToken() { return resumeToken; }
+
+    boolean isSlow() { return slow; }
+
+    void setSlow(boolean slow) {
+        this.slow = slow;
+    }
+
+    void register(String username, int userId, String resumeToken) {
+        this.userId = userId;
+        this.resumeToken = resumeToken;
+        this.username = username;
+    }
+
+    void setRoom(Room room) {
+        this.room = room;
+    }
+}
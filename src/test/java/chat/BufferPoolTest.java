@@ -0,0 +1,91 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+// классы размеров, переиспользование и счетчик ссылок
+class BufferPoolTest {
+
+    @Test
+    void sizeIsRoundedUpToClass() {
+        BufferPool pool = new BufferPool(1 << 20, 0);
+
+        assertEquals(256, pool.acquire(1).buffer().capacity());
+        assertEquals(256, pool.acquire(256).buffer().capacity());
+        assertEquals(512, pool.acquire(257).buffer().capacity());
+        assertEquals(128 * 1024, pool.acquire(100_000).buffer().capacity());
+        assertEquals(200_000, pool.acquire(200_000).buffer().capacity()); // больше крупного класса - ровно по размеру
+
+        PooledBuffer buffer = pool.acquire(300);
+        assertEquals(0, buffer.buffer().position());
+        assertEquals(300, buffer.buffer().limit());
+    }
+
+    @Test
+    void releasedBufferIsReused() {
+        BufferPool pool = new BufferPool(1 << 20, 0);
+        PooledBuffer first = pool.acquire(1000);
+        ByteBuffer bytes = first.buffer();
+        bytes.put((byte) 1);
+        first.release();
+
+        PooledBuffer second = pool.acquire(600);
+        assertSame(bytes, second.buffer());
+        assertEquals(0, second.buffer().position());
+        assertEquals(600, second.buffer().limit());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    void oversizedBufferIsNotPooled() {
+        BufferPool pool = new BufferPool(1 << 20, 0);
+        pool.acquire(200_000).release();
+        pool.acquire(200_000).release();
+
+        assertEquals(0, pool.getHits());
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    @Test
+    void fullClassDropsExtraBuffers() {
+        BufferPool pool = new BufferPool(256, 0); // в классе помещается один буфер на 256 байт
+        PooledBuffer a = pool.acquire(10);
+        PooledBuffer b = pool.acquire(10);
+        a.release();
+        b.release();
+
+        pool.acquire(10);
+        pool.acquire(10);
+        assertEquals(1, pool.getHits());
+    }
+
+    @Test
+    void lastReleaseReturnsBuffer() {
+        BufferPool pool = new BufferPool(1 << 20, 0);
+        PooledBuffer buffer = pool.acquire(64);
+        buffer.retain().retain();
+
+        buffer.release();
+        buffer.release();
+        assertEquals(1, pool.getOutstanding());
+
+        buffer.release();
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    @Test
+    void doubleReleaseIsRejected() {
+        BufferPool pool = new BufferPool(1 << 20, 0);
+        PooledBuffer buffer = pool.acquire(64);
+        buffer.release();
+
+        assertThrows(IllegalStateException.class, buffer::release);
+        assertThrows(IllegalStateException.class, buffer::retain);
+        assertEquals(0, pool.getOutstanding());
+    }
+}
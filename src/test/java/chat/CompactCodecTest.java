@@ -0,0 +1,146 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+// формат v2: varint-длины и поля-ссылки на id из таблицы имен
+class CompactCodecTest {
+
+    @Test
+    void varintSurvivesRoundTrip() throws IOException {
+        int[] values = {0, 1, 127, 128, 16_383, 16_384, 2_097_151, 2_097_152, Integer.MAX_VALUE};
+        for (int value : values) {
+            ByteBuffer buffer = ByteBuffer.allocate(5);
+            CompactCodec.putVarint(buffer, value);
+            assertEquals(CompactCodec.varintSize(value), buffer.position(), "размер " + value);
+
+            buffer.flip();
+            assertEquals(value, CompactCodec.readVarint(buffer));
+            assertFalse(buffer.hasRemaining());
+        }
+    }
+
+    // varint пришел не целиком: -1 и позиция на месте, дочитаю после следующего read
+    @Test
+    void partialVarintLeavesPosition() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        CompactCodec.putVarint(buffer, 300_000);
+        buffer.flip().limit(2);
+
+        assertEquals(-1, CompactCodec.readVarint(buffer));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void overlongVarintIsRejected() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1});
+
+        assertThrows(IOException.class, () -> CompactCodec.readVarint(buffer));
+    }
+
+    @Test
+    void literalMessageSurvivesRoundTrip() throws IOException {
+        Message message = new Message(Message.Type.JOIN_ROOM, "алиса", "17", "комната");
+        ByteBuffer frame = ByteBuffer.allocate(CompactCodec.frameLength(message));
+        CompactCodec.writeFrame(message, frame);
+        frame.flip();
+
+        MessageView view = wrap(frame, new Names());
+
+        assertEquals(Message.Type.JOIN_ROOM, view.getType());
+        assertEquals("алиса", view.getUsername());
+        assertEquals("17", view.getContent());
+        assertEquals("комната", view.getRoom());
+        assertEquals(0, view.getSequence());
+    }
+
+    // первый кадр называет имена вместе с id, следующие ссылаются только на id
+    @Test
+    void definedNamesResolveLaterReferences() throws IOException {
+        Names names = new Names();
+        ByteBuffer first = frame(CompactCodec.Field.define(7, "алиса"), "первое",
+                CompactCodec.Field.define(3, "комната"), 1, 1000);
+        ByteBuffer second = frame(CompactCodec.Field.ref(7), "второе", CompactCodec.Field.ref(3), 2, 2000);
+
+        MessageView view = wrap(first, names);
+        assertEquals("алиса", view.getUsername());
+        assertEquals("комната", view.getRoom());
+        assertEquals("алиса", names.users.get(7));
+        assertEquals("комната", names.rooms.get(3));
+
+        view = wrap(second, names);
+        assertEquals("алиса", view.getUsername());
+        assertEquals("второе", view.getContent());
+        assertEquals("комната", view.getRoom());
+        assertEquals(2, view.getSequence());
+        assertEquals(2000, view.getTimestamp());
+    }
+
+    @Test
+    void definitionIsShorterOnlyOnce() {
+        int defined = CompactCodec.frameLength(CompactCodec.Field.define(7, "алиса"), text("x"), CompactCodec.Field.literal("r"));
+        int referenced = CompactCodec.frameLength(CompactCodec.Field.ref(7), text("x"), CompactCodec.Field.literal("r"));
+
+        assertTrue(referenced < defined);
+    }
+
+    @Test
+    void unknownReferenceResolvesToNull() throws IOException {
+        ByteBuffer frame = frame(CompactCodec.Field.ref(99), "текст", CompactCodec.Field.literal("r"), 0, 0);
+
+        MessageView view = wrap(frame, new Names());
+
+        assertNull(view.getUsername());
+        assertEquals("текст", view.getContent());
+    }
+
+    @Test
+    void truncatedFieldIsRejected() throws IOException {
+        ByteBuffer frame = frame(CompactCodec.Field.literal("алиса"), "текст", CompactCodec.Field.literal("комната"), 0, 0);
+        CompactCodec.readVarint(frame);
+        frame.limit(frame.limit() - 2); // комната обрезана
+
+        assertThrows(IOException.class, () -> new MessageView().wrapCompact(frame, new Names()));
+    }
+
+    private static ByteBuffer frame(CompactCodec.Field username, String content, CompactCodec.Field room,
+                                    long sequence, long timestamp) {
+        ByteBuffer bytes = text(content);
+        ByteBuffer frame = ByteBuffer.allocate(CompactCodec.frameLength(username, bytes, room, sequence));
+        CompactCodec.writeFrame(Message.Type.TEXT, username, bytes, room, sequence, timestamp, frame);
+        assertFalse(frame.hasRemaining());
+        return frame.flip();
+    }
+
+    private static ByteBuffer text(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // кадр целиком: varint-длина, затем сообщение
+    private static MessageView wrap(ByteBuffer frame, NameTable names) throws IOException {
+        ByteBuffer message = frame.duplicate();
+        int length = CompactCodec.readVarint(message);
+        assertEquals(message.remaining(), length);
+        return new MessageView().wrapCompact(message, names);
+    }
+
+    private static final class Names implements NameTable {
+        final Map<Integer, String> users = new HashMap<>();
+        final Map<Integer, String> rooms = new HashMap<>();
+
+        @Override public String user(int id) { return users.get(id); }
+        @Override public String room(int id) { return rooms.get(id); }
+        @Override public void defineUser(int id, String name) { users.put(id, name); }
+        @Override public void defineRoom(int id, String name) { rooms.put(id, name); }
+    }
+}
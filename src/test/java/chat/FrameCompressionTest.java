@@ -0,0 +1,82 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Inflater;
+import org.junit.jupiter.api.Test;
+
+// сжатые сообщения v2: DEFLATED + исходная длина + deflate, распаковываются обратно в то же сообщение
+class FrameCompressionTest {
+
+    @Test
+    void deflatedMessageInflatesBack() throws IOException {
+        String content = "повторяющийся текст ".repeat(100);
+        ByteBuffer frame = frame(content, 5);
+
+        PooledBuffer compressed = FrameCompression.deflate(BufferPool.shared(), frame);
+        assertNotNull(compressed);
+        try {
+            ByteBuffer packed = compressed.buffer().duplicate();
+            int length = CompactCodec.readVarint(packed);
+            assertEquals(packed.remaining(), length);
+            assertTrue(length < frame.remaining());
+            assertTrue(FrameCompression.isDeflated(packed));
+
+            Inflater inflater = new Inflater(true);
+            ByteBuffer message = FrameCompression.inflate(inflater, packed, ByteBuffer.allocate(65536));
+            inflater.end();
+
+            ByteBuffer original = frame.duplicate();
+            CompactCodec.readVarint(original);
+            assertEquals(original, message);
+            assertEquals(content, new MessageView().wrapCompact(message, null).getContent());
+        } finally {
+            compressed.release();
+        }
+    }
+
+    @Test
+    void incompressibleMessageStaysAsIs() throws IOException {
+        ByteBuffer frame = frame("hi", 0);
+
+        assertNull(FrameCompression.deflate(BufferPool.shared(), frame));
+        CompactCodec.readVarint(frame);
+        assertFalse(FrameCompression.isDeflated(frame)); // первый байт обычного сообщения - тип
+    }
+
+    // исходная длина больше буфера распаковки - сообщение испорчено
+    @Test
+    void oversizedOriginalIsRejected() throws IOException {
+        PooledBuffer compressed = FrameCompression.deflate(BufferPool.shared(), frame("x".repeat(1000), 5));
+        assertNotNull(compressed);
+        try {
+            ByteBuffer packed = compressed.buffer().duplicate();
+            CompactCodec.readVarint(packed);
+            Inflater inflater = new Inflater(true);
+            try {
+                assertThrows(IOException.class, () -> FrameCompression.inflate(inflater, packed, ByteBuffer.allocate(100)));
+            } finally {
+                inflater.end();
+            }
+        } finally {
+            compressed.release();
+        }
+    }
+
+    private static ByteBuffer frame(String content, long sequence) {
+        ByteBuffer bytes = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+        CompactCodec.Field username = CompactCodec.Field.literal("алиса");
+        CompactCodec.Field room = CompactCodec.Field.literal("r");
+        ByteBuffer frame = ByteBuffer.allocate(CompactCodec.frameLength(username, bytes, room, sequence));
+        CompactCodec.writeFrame(Message.Type.TEXT, username, bytes, room, sequence, 500, frame);
+        return frame.flip();
+    }
+}
@@ -0,0 +1,76 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+// HELLO/WELCOME - кадры v1 с параметрами знакомства после комнаты
+class HandshakeTest {
+
+    @Test
+    void parametersSurviveRoundTrip() throws IOException {
+        Handshake hello = new Handshake(Handshake.PROTOCOL_VERSION, Handshake.CAP_COMPACT | Handshake.CAP_DEFLATE, 4096, 0);
+        Message message = new Message(Message.Type.HELLO, "алиса", "секрет", "");
+
+        MessageView view = wrap(hello, message);
+        Handshake read = Handshake.read(view);
+
+        assertEquals(Message.Type.HELLO, view.getType());
+        assertEquals("алиса", view.getUsername());
+        assertEquals("секрет", view.getContent());
+        assertEquals(0, view.getSequence()); // параметры в хвосте - не метка сообщения
+        assertEquals(Handshake.PROTOCOL_VERSION, read.getVersion());
+        assertTrue(read.has(Handshake.CAP_COMPACT));
+        assertTrue(read.has(Handshake.CAP_DEFLATE));
+        assertEquals(4096, read.getMaxFrameLength());
+        assertEquals(0, read.getCompressionThreshold());
+    }
+
+    @Test
+    void welcomeCarriesCompressionThreshold() throws IOException {
+        Handshake welcome = new Handshake(2, Handshake.CAP_COMPACT, 65536, 512);
+
+        Handshake read = Handshake.read(wrap(welcome, new Message(Message.Type.WELCOME, "система", "", "")));
+
+        assertFalse(read.has(Handshake.CAP_DEFLATE));
+        assertEquals(512, read.getCompressionThreshold());
+    }
+
+    @Test
+    void negativeThresholdMeansNone() throws IOException {
+        Handshake welcome = new Handshake(2, Handshake.CAP_DEFLATE, 65536, -1);
+
+        assertEquals(0, Handshake.read(wrap(welcome, new Message(Message.Type.WELCOME, "система", "", ""))).getCompressionThreshold());
+    }
+
+    // обычная регистрация v1 без параметров - не знакомство
+    @Test
+    void missingParametersAreRejected() throws IOException {
+        ByteBuffer frame = MessageCodec.encodeFrame(new Message(Message.Type.HELLO, "алиса", "", ""));
+        frame.getInt();
+        MessageView view = new MessageView().wrap(frame);
+
+        assertThrows(IOException.class, () -> Handshake.read(view));
+    }
+
+    @Test
+    void nonPositiveMaxFrameLengthIsRejected() throws IOException {
+        MessageView view = wrap(new Handshake(2, 0, 0, 0), new Message(Message.Type.HELLO, "алиса", "", ""));
+
+        assertThrows(IOException.class, () -> Handshake.read(view));
+    }
+
+    private static MessageView wrap(Handshake handshake, Message message) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(handshake.frameLength(message));
+        handshake.writeFrame(message, frame);
+        assertFalse(frame.hasRemaining());
+        frame.flip();
+        assertEquals(frame.remaining() - 4, frame.getInt());
+        return new MessageView().wrap(frame);
+    }
+}
@@ -0,0 +1,87 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+// формат v1: кадр "длина (int) + сообщение", строки "длина (int) + UTF-8", метка в хвосте
+class MessageCodecTest {
+
+    @Test
+    void messageSurvivesRoundTrip() throws IOException {
+        Message message = new Message(Message.Type.TEXT, "алиса", "привет 🌸", "комната", 42, 1_700_000_000_000L);
+
+        MessageView view = wrap(MessageCodec.encodeFrame(message));
+
+        assertEquals(Message.Type.TEXT, view.getType());
+        assertEquals("алиса", view.getUsername());
+        assertEquals("привет 🌸", view.getContent());
+        assertEquals("комната", view.getRoom());
+        assertEquals(42, view.getSequence());
+        assertEquals(1_700_000_000_000L, view.getTimestamp());
+    }
+
+    @Test
+    void messageWithoutSequenceHasNoStamp() throws IOException {
+        Message message = new Message("боб", "текст", "r");
+        ByteBuffer frame = MessageCodec.encodeFrame(message);
+
+        assertEquals(MessageCodec.frameLength(message), frame.remaining());
+        MessageView view = wrap(frame);
+        assertEquals(0, view.getSequence());
+        assertEquals(0, view.getTimestamp());
+    }
+
+    // пересылка сырыми байтами должна давать ровно тот же кадр, что и кодирование Message
+    @Test
+    void forwardedFrameMatchesEncodedMessage() {
+        ByteBuffer content = ByteBuffer.wrap("сырые байты".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer forwarded = ByteBuffer.allocate(MessageCodec.frameLength("алиса", content, "r", 7));
+        MessageCodec.writeFrame(Message.Type.TEXT, "алиса", content, "r", 7, 123, forwarded);
+        forwarded.flip();
+
+        ByteBuffer encoded = MessageCodec.encodeFrame(new Message(Message.Type.TEXT, "алиса", "сырые байты", "r", 7, 123));
+
+        assertEquals(encoded, forwarded);
+        assertEquals(0, content.position()); // чужой буфер не тронут
+    }
+
+    @Test
+    void utf8MatchesStringGetBytes() {
+        String text = "aé中🌸\ud800x"; // в конце одинокий суррогат
+        byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer out = ByteBuffer.allocate(MessageCodec.utf8Length(text));
+
+        MessageCodec.putUtf8(out, text);
+
+        assertEquals(expected.length, MessageCodec.utf8Length(text));
+        assertArrayEquals(expected, out.array());
+    }
+
+    @Test
+    void truncatedMessageIsRejected() {
+        ByteBuffer frame = MessageCodec.encodeFrame(new Message("алиса", "текст", "r"));
+        frame.getInt();
+        frame.limit(frame.limit() - 3); // комната обрезана
+
+        assertThrows(IOException.class, () -> new MessageView().wrap(frame));
+    }
+
+    @Test
+    void unknownTypeIsRejected() {
+        ByteBuffer frame = ByteBuffer.allocate(16).putInt(99).putInt(0).putInt(0).putInt(0).flip();
+
+        assertThrows(IOException.class, () -> new MessageView().wrap(frame));
+    }
+
+    private static MessageView wrap(ByteBuffer frame) throws IOException {
+        int length = frame.getInt();
+        assertEquals(frame.remaining(), length);
+        return new MessageView().wrap(frame);
+    }
+}
@@ -0,0 +1,153 @@
+package chat.client.network;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import chat.Handshake;
+import chat.Message;
+import chat.MessageCodec;
+import chat.MessageView;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// номера сообщений на стороне клиента: повторы не показываю, о пропусках говорю, свои пропуском не считаю,
+// после обрыва прошу комнату с того места, где остановилась. сервер - сокет теста, кадры v1
+class NetworkClientTest {
+    private static final String END = "конец"; // без номера: показывается всегда, по нему жду остальное
+
+    private final BlockingQueue<Message> shown = new LinkedBlockingQueue<>();
+    private final List<Long> missed = Collections.synchronizedList(new ArrayList<>());
+    private final NetworkClient client = new NetworkClient();
+    private ServerSocket server;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(5000);
+        client.setCompactProtocol(false);
+        client.setMessageListener(new NetworkClient.MessageListener() {
+            @Override public void onMessage(Message message) { shown.add(message); }
+            @Override public void onStatusChanged(boolean connected) { }
+            @Override public void onMessagesMissed(String room, long count) { missed.add(count); }
+        });
+        client.connect("127.0.0.1", server.getLocalPort(), "алиса");
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        client.disconnect();
+        server.close();
+    }
+
+    @Test
+    void duplicatesAreHiddenAndGapsReported() throws Exception {
+        try (Socket socket = accept()) {
+            write(socket, joined(), text(5), text(6), text(6), text(9), end());
+
+            assertEquals(List.of("5", "6", "9", END), contents());
+            assertEquals(List.of(2L), missed);
+        }
+    }
+
+    // своих сообщений сервер не возвращает, но номер они занимают
+    @Test
+    void ownMessagesAreNotCountedAsMissed() throws Exception {
+        try (Socket socket = accept()) {
+            write(socket, joined(), text(5), end());
+            assertEquals(List.of("5", END), contents());
+
+            client.sendMessage("мое", "r");
+            assertEquals("мое", read(socket).getContent());
+            write(socket, text(7), text(9), end());
+
+            assertEquals(List.of("7", "9", END), contents());
+            assertEquals(List.of(1L), missed);
+        }
+    }
+
+    @Test
+    void reconnectResumesAfterLastSeen() throws Exception {
+        try (Socket socket = accept()) {
+            write(socket, joined(), text(5), text(7), end());
+            assertEquals(List.of("5", "7", END), contents());
+        } // обрыв
+
+        try (Socket socket = accept()) {
+            MessageView join = read(socket);
+            assertEquals(Message.Type.JOIN_ROOM, join.getType());
+            assertEquals("r", join.getRoom());
+            assertEquals("7", join.getContent());
+
+            write(socket, joined(), text(8), text(8), end());
+            assertEquals(List.of("8", END), contents());
+            assertEquals(List.of(1L), missed); // 6 пропустила еще до обрыва
+        }
+    }
+
+    // принимаю соединение и отвечаю на HELLO: без v2 и сжатия
+    private Socket accept() throws IOException {
+        Socket socket = server.accept();
+        assertEquals(Message.Type.HELLO, read(socket).getType());
+        Handshake welcome = new Handshake(Handshake.PROTOCOL_VERSION, 0, 65536, 0);
+        Message reply = new Message(Message.Type.WELCOME, "система", "", "");
+        ByteBuffer frame = ByteBuffer.allocate(welcome.frameLength(reply));
+        welcome.writeFrame(reply, frame);
+        socket.getOutputStream().write(frame.array());
+        return socket;
+    }
+
+    // содержимое показанного до END включительно
+    private List<String> contents() throws InterruptedException {
+        List<String> contents = new ArrayList<>();
+        while (true) {
+            Message message = shown.poll(5, TimeUnit.SECONDS);
+            assertNotNull(message);
+            if (message.getType() != Message.Type.TEXT) continue;
+            contents.add(message.getContent());
+            if (message.getContent().equals(END)) return contents;
+        }
+    }
+
+    private static MessageView read(Socket socket) throws IOException {
+        socket.setSoTimeout(5000);
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] frame = new byte[in.readInt()];
+        in.readFully(frame);
+        return new MessageView().wrap(ByteBuffer.wrap(frame));
+    }
+
+    private static void write(Socket socket, Message... messages) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        for (Message message : messages) {
+            ByteBuffer frame = MessageCodec.encodeFrame(message);
+            out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        }
+        out.flush();
+    }
+
+    private static Message joined() {
+        return new Message(Message.Type.JOIN_ROOM, "алиса", "r");
+    }
+
+    private static Message text(long sequence) {
+        return new Message(Message.Type.TEXT, "боб", Long.toString(sequence), "r", sequence, sequence * 1000);
+    }
+
+    private static Message end() {
+        return new Message("система", END, "r");
+    }
+}
@@ -0,0 +1,99 @@
+package chat.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chat.BufferPool;
+import chat.Message;
+import chat.MessageCodec;
+import chat.PooledBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+// журнал в отдельном потоке: остановка отдает все принятое, после нее строки идут напрямую
+class AsyncLogTest {
+    private final BufferPool pool = new BufferPool(1 << 20, 0);
+    private final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    void stopDeliversEverythingAccepted() {
+        AsyncLog log = new AsyncLog(1024, ServerConfig.LogOverflowPolicy.BLOCK);
+        log.setListener(delivered::add);
+        log.start();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) { // больше кольца: BLOCK ждет потребителя, а не теряет
+            log.log("строка " + i);
+            expected.add("строка " + i);
+        }
+        chat(log, "алиса", "привет");
+        expected.add("[r] алиса: привет");
+        log.stop();
+
+        assertEquals(expected, delivered);
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    // без потока строка уходит сразу в вызывающем, а сообщения чата не пишутся и кадр не держится
+    @Test
+    void stoppedLogDeliversDirectly() {
+        AsyncLog log = new AsyncLog(16, ServerConfig.LogOverflowPolicy.DROP_NEW);
+        log.setListener(delivered::add);
+        log.log("до запуска");
+        chat(log, "алиса", "привет");
+        log.start();
+        log.stop();
+        log.log("после остановки");
+
+        assertEquals(List.of("до запуска", "после остановки"), delivered);
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    // слушатель завис: лишние записи выбрасываются, их число приходит отдельной строкой
+    @Test
+    void overflowReportsDroppedRecords() throws InterruptedException {
+        CountDownLatch busy = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        AsyncLog log = new AsyncLog(4, ServerConfig.LogOverflowPolicy.DROP_NEW);
+        log.setListener(message -> {
+            delivered.add(message);
+            if (message.equals("первая")) {
+                busy.countDown();
+                await(resume);
+            }
+        });
+        log.start();
+        log.log("первая");
+        assertTrue(busy.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 7; i++) {
+            log.log("запись " + i);
+        }
+        chat(log, "алиса", "не влезла");
+        resume.countDown();
+        log.stop();
+
+        assertEquals(List.of("первая", "Журнал не успевает: пропущено записей - 4",
+                "запись 0", "запись 1", "запись 2", "запись 3"), delivered);
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    private void chat(AsyncLog log, String user, String text) {
+        Message message = new Message(user, text, "r");
+        PooledBuffer frame = pool.acquire(MessageCodec.frameLength(message));
+        MessageCodec.writeFrame(message, frame.buffer());
+        frame.buffer().flip();
+        log.chat("r", user, frame);
+        frame.release();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
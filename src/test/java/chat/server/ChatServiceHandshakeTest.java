@@ -0,0 +1,98 @@
+package chat.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chat.Handshake;
+import chat.Message;
+import chat.MessageView;
+import chat.PooledBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+// HELLO/WELCOME: сервер включает только то, что умеют обе стороны
+class ChatServiceHandshakeTest {
+    private static final int UNKNOWN_CAP = 1 << 10; // возможность из будущей версии клиента
+
+    @Test
+    void welcomeGrantsCommonCapabilities() throws IOException {
+        RecordingSession session = hello(new ServerConfig().setCompressionThreshold(512),
+                new Handshake(7, Handshake.CAP_COMPACT | Handshake.CAP_DEFLATE | UNKNOWN_CAP, 4096, 0));
+
+        Handshake welcome = session.welcome();
+        assertEquals(Handshake.PROTOCOL_VERSION, welcome.getVersion());
+        assertEquals(Handshake.CAP_COMPACT | Handshake.CAP_DEFLATE, welcome.getCapabilities());
+        assertEquals(FrameDecoder.MAX_FRAME_LENGTH, welcome.getMaxFrameLength());
+        assertEquals(512, welcome.getCompressionThreshold());
+
+        assertTrue(session.protocol().isCompact());
+        assertTrue(session.protocol().acceptsDeflate());
+        assertEquals(4096, session.protocol().maxFrameLength());
+        assertEquals("алиса", session.getUsername());
+        assertEquals("секрет", session.getResumeToken());
+    }
+
+    @Test
+    void deflateStaysOffWithoutServerThreshold() throws IOException {
+        RecordingSession session = hello(new ServerConfig().setCompressionThreshold(0),
+                new Handshake(Handshake.PROTOCOL_VERSION, Handshake.CAP_COMPACT | Handshake.CAP_DEFLATE, 4096, 0));
+
+        assertEquals(Handshake.CAP_COMPACT, session.welcome().getCapabilities());
+        assertTrue(session.protocol().isCompact());
+        assertFalse(session.protocol().acceptsDeflate());
+    }
+
+    @Test
+    void clientWithoutCapabilitiesStaysOnV1() throws IOException {
+        RecordingSession session = hello(new ServerConfig().setCompressionThreshold(512), new Handshake(1, 0, 4096, 0));
+
+        Handshake welcome = session.welcome();
+        assertEquals(1, welcome.getVersion());
+        assertEquals(0, welcome.getCapabilities());
+        assertFalse(session.protocol().isCompact());
+        assertFalse(session.protocol().acceptsDeflate());
+        assertEquals("алиса", session.getUsername());
+    }
+
+    private static RecordingSession hello(ServerConfig config, Handshake hello) {
+        ChatService service = new ChatService(config);
+        RecordingSession session = new RecordingSession();
+        Message message = new Message(Message.Type.HELLO, "алиса", "секрет", "");
+        ByteBuffer frame = ByteBuffer.allocate(hello.frameLength(message));
+        hello.writeFrame(message, frame);
+        frame.flip().getInt(); // длину кадра уже снял декодер
+
+        service.processMessage(session, new MessageView(), frame);
+        return session;
+    }
+
+    // запоминаю копии всех кадров, которые сервер отправил клиенту
+    private static final class RecordingSession extends Session {
+        final List<ByteBuffer> frames = new ArrayList<>();
+
+        @Override
+        void send(PooledBuffer frame, boolean droppable) {
+            ByteBuffer data = frame.buffer();
+            ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+            copy.put(data.duplicate()).flip();
+            frames.add(copy);
+        }
+
+        @Override long pendingBytes() { return 0; }
+        @Override void dropOldest(long target) { }
+        @Override void evict() { }
+
+        // WELCOME - первый кадр, в формате v1
+        Handshake welcome() throws IOException {
+            ByteBuffer frame = frames.get(0).duplicate();
+            frame.getInt();
+            MessageView view = new MessageView().wrap(frame);
+            assertEquals(Message.Type.WELCOME, view.getType());
+            return Handshake.read(view);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package chat.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chat.Message;
+import chat.MessageCodec;
+import chat.MessageView;
+import chat.PooledBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+// медленный клиент: выше верхней отметки включается политика, ниже нижней он снова получает все
+class ChatServiceSlowConsumerTest {
+    private static final long HIGH = 1000;
+    private static final long LOW = 100;
+
+    private ChatService service;
+    private final Member alice = new Member();
+    private final Member bob = new Member();
+
+    @Test
+    void dropOldestMakesRoomForNewFrames() {
+        start(ServerConfig.SlowConsumerPolicy.DROP_OLDEST);
+
+        say("1");
+        bob.pending = 2 * HIGH;
+        say("2");
+        assertTrue(bob.isSlow());
+        assertEquals(List.of(LOW), bob.dropTargets);
+        bob.pending = LOW;
+        say("3");
+        assertFalse(bob.isSlow());
+
+        assertEquals(List.of("1", "2", "3"), bob.texts());
+        assertFalse(bob.evicted);
+    }
+
+    @Test
+    void dropNewSkipsFramesUntilClientCatchesUp() {
+        start(ServerConfig.SlowConsumerPolicy.DROP_NEW);
+
+        say("1");
+        bob.pending = 2 * HIGH;
+        say("2");
+        bob.pending = LOW + 1; // между отметками - все еще медленный
+        say("3");
+        bob.pending = LOW;
+        say("4");
+
+        assertEquals(List.of("1", "4"), bob.texts());
+        assertEquals(List.of(), bob.dropTargets);
+        assertFalse(bob.evicted);
+    }
+
+    @Test
+    void disconnectWarnsAndEvicts() {
+        start(ServerConfig.SlowConsumerPolicy.DISCONNECT);
+
+        say("1");
+        bob.pending = 2 * HIGH;
+        say("2");
+
+        assertEquals(List.of("1"), bob.texts());
+        assertTrue(bob.evicted);
+        assertEquals(Message.Type.SYSTEM, bob.types.get(bob.types.size() - 1));
+    }
+
+    private void start(ServerConfig.SlowConsumerPolicy policy) {
+        service = new ChatService(new ServerConfig()
+                .setOutboundHighWatermark(HIGH)
+                .setOutboundLowWatermark(LOW)
+                .setSlowConsumerPolicy(policy));
+        send(alice, new Message("алиса", "", ""));
+        send(bob, new Message("боб", "", ""));
+        send(alice, new Message(Message.Type.CREATE_ROOM, "алиса", "r"));
+        send(bob, new Message(Message.Type.JOIN_ROOM, "боб", "r"));
+    }
+
+    private void say(String text) {
+        send(alice, new Message("алиса", text, "r"));
+    }
+
+    private void send(Session session, Message message) {
+        ByteBuffer frame = MessageCodec.encodeFrame(message);
+        frame.getInt(); // длину кадра уже снял декодер
+        service.processMessage(session, new MessageView(), frame);
+    }
+
+    // очередь клиента изображаю числом байт, отправленное разбираю сразу
+    private static final class Member extends Session {
+        final List<Message.Type> types = new ArrayList<>();
+        final List<String> authors = new ArrayList<>();
+        final List<String> contents = new ArrayList<>();
+        final List<Long> dropTargets = new ArrayList<>();
+        long pending = 0;
+        boolean evicted = false;
+
+        @Override
+        void send(PooledBuffer frame, boolean droppable) {
+            ByteBuffer data = frame.buffer().duplicate();
+            data.getInt();
+            try {
+                MessageView view = new MessageView().wrap(data);
+                types.add(view.getType());
+                authors.add(view.getUsername());
+                contents.add(view.getContent());
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override long pendingBytes() { return pending; }
+        @Override void dropOldest(long target) { dropTargets.add(target); }
+        @Override void evict() { evicted = true; }
+
+        // что написала алиса, без сообщений системы
+        List<String> texts() {
+            List<String> texts = new ArrayList<>();
+            for (int i = 0; i < types.size(); i++) {
+                if (types.get(i) == Message.Type.TEXT && "алиса".equals(authors.get(i))) texts.add(contents.get(i));
+            }
+            return texts;
+        }
+    }
+}
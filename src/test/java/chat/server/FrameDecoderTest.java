@@ -0,0 +1,174 @@
+package chat.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import chat.CompactCodec;
+import chat.Message;
+import chat.MessageCodec;
+import chat.MessageView;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+// кадры приходят кусками как угодно: декодер отдает только целые и ничего не теряет между чтениями
+class FrameDecoderTest {
+    private static final int[] CHUNKS = {1, 2, 3, 7, 4096, Integer.MAX_VALUE};
+
+    @Test
+    void v1FramesSplitAnywhere() throws IOException {
+        List<Message> sent = messages();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (Message message : sent) {
+            stream.write(array(MessageCodec.encodeFrame(message)));
+        }
+
+        for (int chunk : CHUNKS) {
+            assertContents(sent, decode(new ProtocolState(), stream.toByteArray(), chunk), chunk);
+        }
+    }
+
+    @Test
+    void compactFramesSplitAnywhere() throws IOException {
+        List<Message> sent = messages();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (Message message : sent) {
+            ByteBuffer frame = ByteBuffer.allocate(CompactCodec.frameLength(message));
+            CompactCodec.writeFrame(message, frame);
+            stream.write(frame.array());
+        }
+
+        for (int chunk : CHUNKS) {
+            ProtocolState protocol = new ProtocolState();
+            protocol.switchToCompact();
+            assertContents(sent, decode(protocol, stream.toByteArray(), chunk), chunk);
+        }
+    }
+
+    // после WELCOME клиент пишет уже в v2: следующий кадр того же чтения декодер читает по-новому
+    @Test
+    void formatSwitchesBetweenFrames() throws IOException {
+        Message hello = new Message(Message.Type.HELLO, "алиса", "", "");
+        Message text = new Message("алиса", "уже v2", "r");
+        ByteBuffer compact = ByteBuffer.allocate(CompactCodec.frameLength(text));
+        CompactCodec.writeFrame(text, compact);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(array(MessageCodec.encodeFrame(hello)));
+        stream.write(compact.array());
+
+        for (int chunk : CHUNKS) {
+            ProtocolState protocol = new ProtocolState();
+            List<String> contents = new ArrayList<>();
+            FrameDecoder decoder = new FrameDecoder(protocol);
+            MessageView view = new MessageView();
+            feed(decoder, stream.toByteArray(), chunk, frame -> {
+                try {
+                    MessageView message = protocol.isCompact() ? view.wrapCompact(frame, null) : view.wrap(frame);
+                    contents.add(message.getType() + ":" + message.getContent());
+                    if (message.getType() == Message.Type.HELLO) protocol.switchToCompact();
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            assertEquals(List.of("HELLO:", "TEXT:уже v2"), contents, "куски по " + chunk);
+        }
+    }
+
+    @Test
+    void oversizedLengthIsRejected() {
+        byte[] bytes = ByteBuffer.allocate(8).putInt(FrameDecoder.MAX_FRAME_LENGTH + 1).putInt(0).array();
+
+        assertThrows(IOException.class, () -> decode(new ProtocolState(), bytes, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void zeroLengthIsRejected() {
+        byte[] bytes = {0};
+        ProtocolState protocol = new ProtocolState();
+        protocol.switchToCompact();
+
+        assertThrows(IOException.class, () -> decode(protocol, bytes, Integer.MAX_VALUE));
+    }
+
+    // короткие и длинные вперемешку: длинный не влезает в начальный буфер и приходит за много чтений
+    private static List<Message> messages() {
+        return List.of(
+                new Message("алиса", "привет", "r"),
+                new Message(Message.Type.JOIN_ROOM, "боб", "", "комната"),
+                new Message("боб", "длинный текст ".repeat(1000), "комната"),
+                new Message("алиса", "🌸", "r"));
+    }
+
+    private static List<Message> decode(ProtocolState protocol, byte[] bytes, int chunk) throws IOException {
+        List<Message> received = new ArrayList<>();
+        MessageView view = new MessageView();
+        FrameDecoder decoder = new FrameDecoder(protocol);
+        feed(decoder, bytes, chunk, frame -> {
+            try {
+                received.add((protocol.isCompact() ? view.wrapCompact(frame, null) : view.wrap(frame)).toMessage());
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        return received;
+    }
+
+    private static void feed(FrameDecoder decoder, byte[] bytes, int chunk, FrameDecoder.FrameHandler handler)
+            throws IOException {
+        ChunkedChannel channel = new ChunkedChannel(bytes, chunk);
+        try {
+            while (channel.hasRemaining()) {
+                decoder.readFrom(channel);
+                decoder.drain(handler);
+            }
+        } finally {
+            decoder.release();
+        }
+    }
+
+    private static void assertContents(List<Message> expected, List<Message> actual, int chunk) {
+        assertEquals(expected.size(), actual.size(), "куски по " + chunk);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getType(), actual.get(i).getType());
+            assertEquals(expected.get(i).getUsername(), actual.get(i).getUsername());
+            assertEquals(expected.get(i).getContent(), actual.get(i).getContent());
+            assertEquals(expected.get(i).getRoom(), actual.get(i).getRoom());
+        }
+    }
+
+    private static byte[] array(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    // канал, который за одно чтение отдает не больше chunk байт
+    private static final class ChunkedChannel implements ReadableByteChannel {
+        private final ByteBuffer data;
+        private final int chunk;
+
+        ChunkedChannel(byte[] bytes, int chunk) {
+            this.data = ByteBuffer.wrap(bytes);
+            this.chunk = chunk;
+        }
+
+        boolean hasRemaining() {
+            return data.hasRemaining();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            int count = Math.min(Math.min(chunk, dst.remaining()), data.remaining());
+            dst.put(data.slice(data.position(), count));
+            data.position(data.position() + count);
+            return count;
+        }
+
+        @Override public boolean isOpen() { return true; }
+        @Override public void close() { }
+    }
+}
@@ -0,0 +1,71 @@
+package chat.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+// проценты - верхняя граница корзины из степеней двойки, все в микросекундах
+class LatencyHistogramTest {
+
+    @Test
+    void emptyHistogramIsAllZeros() {
+        HistogramSnapshot snapshot = new LatencyHistogram().snapshot();
+
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMeanMicros());
+        assertEquals(0, snapshot.getP50Micros());
+        assertEquals(0, snapshot.getP999Micros());
+        assertEquals(0, snapshot.getMaxMicros());
+    }
+
+    @Test
+    void percentilesReportBucketUpperBound() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000); // корзина 512..1023 нс
+        }
+        histogram.record(1_000_000); // корзина 524288..1048575 нс
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(10.99, snapshot.getMeanMicros(), 1e-9);
+        assertEquals(1.024, snapshot.getP50Micros(), 1e-9);
+        assertEquals(1.024, snapshot.getP99Micros(), 1e-9);
+        assertEquals(1048.576, snapshot.getP999Micros(), 1e-9);
+        assertEquals(1000.0, snapshot.getMaxMicros(), 1e-9);
+    }
+
+    // отрицательное время (часы разных потоков) считаю нулем, а не роняю запись
+    @Test
+    void negativeTimeCountsAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1, snapshot.getCount());
+        assertEquals(0.002, snapshot.getP50Micros(), 1e-9);
+        assertEquals(0, snapshot.getMaxMicros());
+    }
+
+    @Test
+    void concurrentRecordsAreNotLost() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long nanos = 1000L << t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.record(nanos);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(40_000, snapshot.getCount());
+        assertEquals(8.0, snapshot.getMaxMicros(), 1e-9);
+    }
+}
@@ -0,0 +1,154 @@
+package chat.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chat.BufferPool;
+import chat.Message;
+import chat.MessageCodec;
+import chat.MessageView;
+import chat.PooledBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+
+// кольца последних кадров: порядок, возобновление, общий бюджет и сборка из истории параллельно с рассылкой
+class RecentFramesTest {
+    private final BufferPool pool = new BufferPool(1 << 20, 0);
+    private final Reader alice = new Reader("алиса");
+
+    @Test
+    void ringKeepsLastFramesInOrder() throws IOException {
+        RecentFrames recent = new RecentFrames(pool, 3, Long.MAX_VALUE, null);
+        for (long sequence = 1; sequence <= 5; sequence++) {
+            append(recent, "r", "боб", sequence);
+        }
+
+        assertEquals(List.of(3L, 4L, 5L), collect(recent, "r", alice, -1));
+        recent.clear();
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    // вернувшийся видит только пропущенное и без своих сообщений
+    @Test
+    void resumeSkipsSeenAndOwnFrames() throws IOException {
+        RecentFrames recent = new RecentFrames(pool, 10, Long.MAX_VALUE, null);
+        append(recent, "r", "боб", 1);
+        append(recent, "r", "боб", 2);
+        append(recent, "r", "алиса", 3);
+        append(recent, "r", "боб", 4);
+
+        assertEquals(List.of(4L), collect(recent, "r", alice, 2));
+        recent.clear();
+    }
+
+    // кадр из пула занимает 256 байт: в бюджет 600 влезают два, третий вытесняет самую тихую комнату
+    @Test
+    void budgetEvictsColdestRoom() throws IOException {
+        RecentFrames recent = new RecentFrames(pool, 10, 600, null);
+        append(recent, "тихая", "боб", 1);
+        append(recent, "шумная", "боб", 1);
+        append(recent, "шумная", "боб", 2);
+
+        assertEquals(List.of(), collect(recent, "тихая", alice, -1));
+        assertEquals(List.of(1L, 2L), collect(recent, "шумная", alice, -1));
+        recent.clear();
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    // пока вошедший читает историю, рассылка не ждет; ее кадры встают после истории без повторов
+    @Test
+    void framesBroadcastDuringPreloadFollowHistory() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        BiConsumer<String, Consumer<ByteBuffer>> history = (room, sink) -> {
+            reading.countDown();
+            await(resume);
+            for (long sequence = 1; sequence <= 3; sequence++) {
+                ByteBuffer stored = MessageCodec.encodeFrame(frameMessage("боб", sequence));
+                sink.accept(stored);
+            }
+        };
+        RecentFrames recent = new RecentFrames(pool, 10, Long.MAX_VALUE, history);
+
+        Thread joiner = new Thread(() -> recent.preload("r"));
+        joiner.start();
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+        append(recent, "r", "боб", 3); // уже есть в истории
+        append(recent, "r", "боб", 4);
+        resume.countDown();
+        joiner.join(5000);
+
+        assertEquals(List.of(1L, 2L, 3L, 4L), collect(recent, "r", alice, -1));
+        recent.clear();
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    // без кольца и с историей рассылка кадр не кладет: его отдаст история при следующем входе
+    @Test
+    void coldRoomLoadsFromHistoryOnCollect() throws IOException {
+        List<Long> stored = new ArrayList<>();
+        RecentFrames recent = new RecentFrames(pool, 10, Long.MAX_VALUE, (room, sink) -> {
+            for (long sequence : stored) {
+                sink.accept(MessageCodec.encodeFrame(frameMessage("боб", sequence)));
+            }
+        });
+        stored.add(1L);
+        append(recent, "r", "боб", 1);
+
+        assertEquals(List.of(1L), collect(recent, "r", alice, -1));
+        recent.clear();
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    private void append(RecentFrames recent, String room, String author, long sequence) {
+        Message message = frameMessage(author, sequence);
+        PooledBuffer frame = pool.acquire(MessageCodec.frameLength(message));
+        MessageCodec.writeFrame(message, frame.buffer());
+        frame.buffer().flip();
+        recent.append(room, frame, author, sequence);
+        frame.release();
+    }
+
+    private static List<Long> collect(RecentFrames recent, String room, Session session, long after) throws IOException {
+        List<PooledBuffer> frames = new ArrayList<>();
+        recent.collect(room, session, after, frames);
+        List<Long> sequences = new ArrayList<>();
+        for (PooledBuffer frame : frames) {
+            ByteBuffer data = frame.buffer().duplicate();
+            data.getInt();
+            sequences.add(new MessageView().wrap(data).getSequence());
+            frame.release();
+        }
+        return sequences;
+    }
+
+    private static Message frameMessage(String author, long sequence) {
+        return new Message(Message.Type.TEXT, author, "сообщение " + sequence, "r", sequence, sequence * 1000);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Reader extends Session {
+        Reader(String username) {
+            register(username, 1, null);
+        }
+
+        @Override void send(PooledBuffer frame, boolean droppable) { }
+        @Override long pendingBytes() { return 0; }
+        @Override void dropOldest(long target) { }
+        @Override void evict() { }
+    }
+}
@@ -0,0 +1,147 @@
+package chat.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import chat.BufferPool;
+import chat.Message;
+import chat.MessageCodec;
+import chat.MessageView;
+import chat.PooledBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// журнал комнаты: смена сегментов, чтение с конца, продолжение после перезапуска и выключение при ошибке
+class RoomLogTest {
+    private static final int SEGMENT_SIZE = 256; // кадр с записью ~70 байт: в сегмент влезают три
+
+    private final BufferPool pool = new BufferPool(1 << 20, 0);
+    private final List<String> errors = new ArrayList<>();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rolloverKeepsLatestSegments() throws IOException {
+        RoomLog log = new RoomLog(directory, SEGMENT_SIZE, 3, errors::add);
+        for (long sequence = 1; sequence <= 20; sequence++) {
+            append(log, sequence);
+            assertEquals(0, log.writePending());
+        }
+
+        assertEquals(3, segmentCount());
+        assertEquals(List.of(17L, 18L, 19L, 20L), replay(log, 4));
+        List<Long> all = replay(log, 100);
+        assertEquals(20L, all.get(all.size() - 1));
+        for (int i = 1; i < all.size(); i++) {
+            assertEquals(all.get(i - 1) + 1, all.get(i)); // без дыр и повторов на стыках сегментов
+        }
+        assertTrue(all.size() < 20);
+        assertEquals(List.of(), errors);
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    // еще не записанное тоже попадает в историю, после записанного
+    @Test
+    void replayIncludesPendingFrames() throws IOException {
+        RoomLog log = new RoomLog(directory, SEGMENT_SIZE, 3, errors::add);
+        append(log, 1);
+        append(log, 2);
+        log.writePending();
+        append(log, 3);
+
+        assertEquals(List.of(1L, 2L, 3L), replay(log, 10));
+        assertEquals(List.of(2L, 3L), replay(log, 2));
+        log.writePending();
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    @Test
+    void reopenedLogContinuesFromEnd() throws IOException {
+        RoomLog first = new RoomLog(directory, SEGMENT_SIZE, 3, errors::add);
+        for (long sequence = 1; sequence <= 5; sequence++) {
+            append(first, sequence);
+        }
+        first.writePending();
+        first.force();
+
+        RoomLog second = new RoomLog(directory, SEGMENT_SIZE, 3, errors::add);
+        append(second, 6);
+        append(second, 7);
+        second.writePending();
+
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L), replay(second, 10));
+    }
+
+    @Test
+    void oversizedFrameIsCountedAsLost() throws IOException {
+        RoomLog log = new RoomLog(directory, SEGMENT_SIZE, 3, errors::add);
+        append(log, new Message(Message.Type.TEXT, "боб", "x".repeat(SEGMENT_SIZE), "r", 1, 1000));
+        append(log, 2);
+
+        assertEquals(1, log.writePending());
+        assertEquals(List.of(2L), replay(log, 10));
+    }
+
+    // вместо каталога файл: журнал выключается, о причине говорит один раз, кадры не держит
+    @Test
+    void logThatCannotOpenDropsFrames() throws IOException {
+        Path blocked = directory.resolve("r");
+        Files.createFile(blocked);
+        RoomLog log = new RoomLog(blocked, SEGMENT_SIZE, 3, errors::add);
+        append(log, 1);
+
+        assertEquals(0, log.writePending());
+        assertEquals(List.of(), replay(log, 10));
+        PooledBuffer late = frame(new Message(Message.Type.TEXT, "боб", "2", "r", 2, 2000));
+        assertFalse(log.append(late));
+        late.release();
+        assertEquals(1, errors.size());
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    private void append(RoomLog log, long sequence) {
+        append(log, new Message(Message.Type.TEXT, "боб", "сообщение " + sequence, "r", sequence, sequence * 1000));
+    }
+
+    private void append(RoomLog log, Message message) {
+        PooledBuffer frame = frame(message);
+        log.append(frame);
+        frame.release();
+    }
+
+    private PooledBuffer frame(Message message) {
+        PooledBuffer frame = pool.acquire(MessageCodec.frameLength(message));
+        MessageCodec.writeFrame(message, frame.buffer());
+        frame.buffer().flip();
+        return frame;
+    }
+
+    private static List<Long> replay(RoomLog log, int count) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        log.replay(count, stored -> {
+            ByteBuffer data = stored.duplicate();
+            data.getInt();
+            try {
+                sequences.add(new MessageView().wrap(data).getSequence());
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        return sequences;
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+}